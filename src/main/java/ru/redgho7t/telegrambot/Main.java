@@ -7,7 +7,11 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
+import ru.redgho7t.telegrambot.config.BotConfig;
+
+import java.util.List;
 
 @SpringBootApplication
 public class Main implements CommandLineRunner {
@@ -17,6 +21,9 @@ public class Main implements CommandLineRunner {
     @Autowired
     private TelegramAiBot bot;
 
+    @Autowired
+    private BotConfig config;
+
     public static void main(String[] args) {
         logger.info("🚀 === Запуск Telegram AI Bot с Spring Boot ===");
         SpringApplication.run(Main.class, args);
@@ -24,9 +31,35 @@ public class Main implements CommandLineRunner {
 
     @Override
     public void run(String... args) throws Exception {
+        if (config.isWebhookMode()) {
+            registerWebhook();
+            return;
+        }
+
         logger.info("🔧 Регистрация Telegram бота...");
         TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
         botsApi.registerBot(bot);
         logger.info("✅ Бот зарегистрирован: @{}", bot.getBotUsername());
     }
+
+    /**
+     * Регистрирует webhook: обновления приходят в WebhookController на встроенном сервере.
+     * Без адреса и секрета бот не запускается: открытый webhook принял бы поддельные обновления
+     */
+    private void registerWebhook() throws Exception {
+        if (config.getWebhookUrl() == null || config.getWebhookUrl().isBlank()) {
+            throw new IllegalStateException("Режим webhook включён, но telegram.bot.webhook-url не задан");
+        }
+        if (!config.hasWebhookSecret()) {
+            throw new IllegalStateException("Режим webhook включён, но telegram.bot.webhook-secret не задан");
+        }
+        logger.info("🔧 Регистрация webhook: {}", config.getWebhookUrl());
+        SetWebhook setWebhook = SetWebhook.builder()
+                .url(config.getWebhookUrl())
+                .secretToken(config.getWebhookSecret())
+                .allowedUpdates(List.of("message", "callback_query"))
+                .build();
+        bot.execute(setWebhook);
+        logger.info("✅ Webhook зарегистрирован для @{}", bot.getBotUsername());
+    }
 }
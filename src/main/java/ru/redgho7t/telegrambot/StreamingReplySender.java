@@ -0,0 +1,204 @@
+package ru.redgho7t.telegrambot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import ru.redgho7t.telegrambot.service.OutboundMessageQueue;
+import ru.redgho7t.telegrambot.service.TelegramFormatter;
+import ru.redgho7t.telegrambot.utils.MessageSplitter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Постепенная доставка потокового ответа AI.
+ * Первое сообщение отправляется, как только пришёл первый фрагмент, затем редактируется
+ * не чаще editInterval. Когда текст перерастает лимит Telegram, ответ продолжается в новом сообщении.
+ * onChunk вызывается из потока OkHttp, читающего ответ (для ответа из кэша или подписки на общий поток -
+ * из потока обработки чата), finish - из очереди чата после завершения ответа. Вызовы не пересекаются
+ * по времени, но идут из разных потоков, поэтому оба метода synchronized: состояние feed/current
+ * видно следующему вызову независимо от того, в каком потоке он выполняется.
+ */
+class StreamingReplySender {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingReplySender.class);
+
+    // Запас на случай, если финальная версия с разметкой выйдет длиннее промежуточной
+    private static final int SEGMENT_LIMIT = MessageSplitter.MAX_MESSAGE_LENGTH - 96;
+
+    private final DefaultAbsSender bot;
+    private final OutboundMessageQueue outboundQueue;
+    private final TelegramFormatter formatter;
+    private final Long chatId;
+    private final long editIntervalNanos;
+
+    private final MessageSplitter.Feed feed = new MessageSplitter.Feed(SEGMENT_LIMIT);
+    private Segment current;
+    private long lastFlushNanos;
+    private int messagesSent;
+
+    StreamingReplySender(DefaultAbsSender bot, OutboundMessageQueue outboundQueue, TelegramFormatter formatter,
+                         Long chatId, long editIntervalMs) {
+        this.bot = bot;
+        this.outboundQueue = outboundQueue;
+        this.formatter = formatter;
+        this.chatId = chatId;
+        this.editIntervalNanos = TimeUnit.MILLISECONDS.toNanos(editIntervalMs);
+    }
+
+    /**
+     * Новый фрагмент ответа
+     */
+    synchronized void onChunk(String chunk) {
+        feed.append(chunk);
+        rolloverCompletedSegments();
+
+        String tail = currentTail();
+        if (tail.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (current == null) {
+            startSegment(tail);
+            lastFlushNanos = now;
+        } else if (now - lastFlushNanos >= editIntervalNanos) {
+            current.update(tail, false);
+            lastFlushNanos = now;
+        }
+    }
+
+    /**
+     * Завершает доставку: последняя часть редактируется в финальный вид с разметкой.
+     * @param fallbackText текст для отправки, если ни одного фрагмента не пришло
+     * @return полный доставленный текст
+     */
+    synchronized String finish(String fallbackText) {
+        if (feed.isEmpty()) {
+            feed.append(fallbackText);
+        }
+        rolloverCompletedSegments();
+
+        String tail = currentTail();
+        if (current == null) {
+            if (!tail.isBlank()) {
+                startSegment(tail);
+                current.update(tail, true);
+            }
+        } else {
+            current.update(tail, true);
+        }
+        current = null;
+
+        logger.info("📡 Потоковый ответ доставлен в чат {}: {} символов, {} сообщений",
+                chatId, feed.length(), messagesSent);
+        return feed.text().toString();
+    }
+
+    /**
+     * Закрывает заполненные сообщения на границах, выбранных MessageSplitter, и начинает следующие
+     */
+    private void rolloverCompletedSegments() {
+        int start = feed.partStart();
+        int end;
+        while ((end = feed.nextCut()) >= 0) {
+            String segmentText = feed.text().subSequence(start, end).toString();
+            if (current == null) {
+                startSegment(segmentText);
+            }
+            current.update(segmentText, true);
+            current = null;
+            start = feed.partStart();
+        }
+    }
+
+    private String currentTail() {
+        CharSequence text = feed.text();
+        return text.subSequence(feed.partStart(), text.length()).toString();
+    }
+
+    private void startSegment(String initialText) {
+        Segment segment = new Segment(initialText);
+        segment.sent = outboundQueue.enqueue(chatId, initialText, () -> bot.execute(SendMessage.builder()
+                .chatId(chatId.toString())
+                .text(initialText)
+                .disableWebPagePreview(true)
+                .build()));
+        current = segment;
+        messagesSent++;
+    }
+
+    /**
+     * Одно сообщение Telegram, которое дописывается редактированием.
+     * В очереди держим не больше одного редактирования: оно берёт самый свежий текст в момент отправки.
+     */
+    private class Segment {
+        private CompletableFuture<Message> sent;
+        private volatile String latest;
+        private volatile boolean finalVersion;
+        private volatile String delivered;
+        private final AtomicBoolean editQueued = new AtomicBoolean();
+
+        Segment(String initialText) {
+            this.latest = initialText;
+            this.delivered = initialText;
+        }
+
+        void update(String newText, boolean isFinal) {
+            latest = newText;
+            if (isFinal) {
+                finalVersion = true;
+            }
+            if (editQueued.compareAndSet(false, true)) {
+                outboundQueue.enqueue(chatId, this::edit);
+            }
+        }
+
+        private Boolean edit() throws TelegramApiException {
+            editQueued.set(false);
+            String snapshot = latest;
+            boolean markdown = finalVersion;
+
+            Message message;
+            try {
+                // Очередь исполняет запросы чата по порядку, поэтому отправка уже завершена
+                message = sent.getNow(null);
+            } catch (Exception e) {
+                return false;
+            }
+            if (message == null || (!markdown && snapshot.equals(delivered))) {
+                return false;
+            }
+
+            EditMessageText edit = EditMessageText.builder()
+                    .chatId(chatId.toString())
+                    .messageId(message.getMessageId())
+                    .text(markdown ? formatter.toHtml(snapshot) : snapshot)
+                    .parseMode(markdown ? TelegramFormatter.PARSE_MODE : null)
+                    .disableWebPagePreview(true)
+                    .build();
+            try {
+                bot.execute(edit);
+            } catch (TelegramApiException e) {
+                String error = e.getMessage() != null ? e.getMessage() : "";
+                // Текст не изменился или разметка не разобралась - остаётся уже доставленная версия
+                if (!error.contains("not modified") && !error.contains("parse")) {
+                    throw e;
+                }
+                if (error.contains("parse")) {
+                    formatter.recordFallback();
+                }
+                if (error.contains("parse") && !snapshot.equals(delivered)) {
+                    edit.setText(snapshot);
+                    edit.setParseMode(null);
+                    bot.execute(edit);
+                }
+            }
+            delivered = snapshot;
+            return true;
+        }
+    }
+}
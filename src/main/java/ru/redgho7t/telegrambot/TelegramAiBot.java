@@ -8,17 +8,26 @@ import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
 import org.telegram.telegrambots.meta.api.methods.send.SendDice;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import ru.redgho7t.telegrambot.config.BotConfig;
 import ru.redgho7t.telegrambot.entity.MessageLog.MessageType;
 import ru.redgho7t.telegrambot.service.DatabaseService;
+import ru.redgho7t.telegrambot.service.DelayedReplyScheduler;
+import ru.redgho7t.telegrambot.service.GenerationTiers;
 import ru.redgho7t.telegrambot.service.MessageProcessor;
-import ru.redgho7t.telegrambot.utils.KeyboardFactory;
+import ru.redgho7t.telegrambot.service.MessageProcessor.DeliveryMode;
+import ru.redgho7t.telegrambot.service.OutboundMessageQueue;
+import ru.redgho7t.telegrambot.service.TelegramFormatter;
+import ru.redgho7t.telegrambot.service.UpdateDispatcher;
 import ru.redgho7t.telegrambot.utils.MessageSplitter;
+import ru.redgho7t.telegrambot.utils.ResponseTemplates;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Основной класс Telegram AI Bot с поддержкой всех сервисов
@@ -27,20 +36,35 @@ import java.util.List;
 @Component
 public class TelegramAiBot extends TelegramLongPollingBot {
     private static final Logger logger = LoggerFactory.getLogger(TelegramAiBot.class);
-    private static final int MESSAGE_DELAY = 200;
     private static final int ROULETTE_ANIMATION_DELAY = 4000;
+    private static final int STREAM_EDIT_INTERVAL = 1500;
 
     private final BotConfig config;
     private final MessageProcessor messageProcessor;
     private final DatabaseService databaseService;
+    private final UpdateDispatcher updateDispatcher;
+    private final DelayedReplyScheduler delayedReplyScheduler;
+    private final OutboundMessageQueue outboundQueue;
+    private final TelegramFormatter formatter;
+    private final ResponseTemplates responseTemplates;
 
     @Autowired
     public TelegramAiBot(BotConfig config,
                          MessageProcessor messageProcessor,
-                         DatabaseService databaseService) {
+                         DatabaseService databaseService,
+                         UpdateDispatcher updateDispatcher,
+                         DelayedReplyScheduler delayedReplyScheduler,
+                         OutboundMessageQueue outboundQueue,
+                         TelegramFormatter formatter,
+                         ResponseTemplates responseTemplates) {
         this.config = config;
         this.messageProcessor = messageProcessor; // Spring сам инжектирует готовый бин
         this.databaseService = databaseService;
+        this.updateDispatcher = updateDispatcher;
+        this.delayedReplyScheduler = delayedReplyScheduler;
+        this.outboundQueue = outboundQueue;
+        this.formatter = formatter;
+        this.responseTemplates = responseTemplates;
 
         logger.info("🤖 TelegramAiBot v2.0 инициализирован для @{} с полным Spring DI", config.getBotUsername());
         config.logConfiguration();
@@ -56,8 +80,23 @@ public class TelegramAiBot extends TelegramLongPollingBot {
         return config.getBotUsername();
     }
 
+    /**
+     * Принимает обновление и сразу возвращает управление.
+     * Обработка идёт в UpdateDispatcher: по порядку внутри чата, параллельно между чатами.
+     */
     @Override
     public void onUpdateReceived(Update update) {
+        Long chatId = getChatId(update);
+        if (!updateDispatcher.dispatch(chatId, () -> processUpdate(update))) {
+            logger.warn("⚠️ Обновление {} для чата {} отброшено: очередь переполнена",
+                    update.getUpdateId(), chatId);
+        }
+    }
+
+    /**
+     * Обрабатывает одно обновление в потоке диспетчера
+     */
+    private void processUpdate(Update update) {
         // Засекаем время начала обработки
         long startTime = System.currentTimeMillis();
         try {
@@ -108,26 +147,17 @@ public class TelegramAiBot extends TelegramLongPollingBot {
             logger.warn("⚠️ Не удалось ответить на callback: {}", e.getMessage());
         }
 
-        // Обрабатываем callback через MessageProcessor
+        // Обрабатываем callback через MessageProcessor: клавиатуру и тип для лога он уже определил
         var result = messageProcessor.processUpdate(update);
-        if (result.shouldReply() && !result.getResponse().trim().isEmpty()) {
-            InlineKeyboardMarkup keyboard = null;
-
-            // Определяем нужную клавиатуру
-            if (callbackData.equals("cmd_start") || callbackData.equals("back_main")) {
-                keyboard = KeyboardFactory.getMainMenuKeyboard();
-            } else if (result.shouldShowCreatorKeyboard()) {
-                keyboard = KeyboardFactory.getCreatorInfoKeyboard();
-            }
-
-            sendMessageWithKeyboard(chatId, result.getResponse(), keyboard);
+        if (result.getDeliveryMode() == DeliveryMode.TEXT) {
+            sendMessageWithKeyboard(chatId, result.getResponse(), result.getKeyboard());
 
             // Логируем в БД
             long responseTime = System.currentTimeMillis() - startTime;
             databaseService.logMessage(
                     chatId, userId, userName,
                     "Callback: " + callbackData, result.getResponse(),
-                    MessageType.CALLBACK, false, responseTime
+                    result.getMessageType(), false, responseTime
             );
         }
     }
@@ -147,93 +177,137 @@ public class TelegramAiBot extends TelegramLongPollingBot {
                 messageText.length() > 50 ? messageText.substring(0, 50) + "..." : messageText);
 
         var result = messageProcessor.processUpdate(update);
-        if (result.shouldReply() && !result.getResponse().trim().isEmpty()) {
+        MessageType messageType = result.getMessageType();
 
-            // НОВАЯ ФУНКЦИЯ: Обработка анимации рулетки
-            if (result.needsRouletteAnimation()) {
-                handleRouletteWithAnimation(chatId, result.getResponse());
-            } else {
-                InlineKeyboardMarkup keyboard = null;
-
-                // Для команды /start показываем главное меню
-                if (messageText.equals("/start") || messageText.startsWith("/start@")) {
-                    keyboard = KeyboardFactory.getMainMenuKeyboard();
-                }
-// НОВАЯ ЛОГИКА: Показываем меню выбора знаков зодиака
-                else if (result.shouldShowZodiacMenu()) {
-                    keyboard = KeyboardFactory.getZodiacMenuKeyboard();
-                }
-
-                sendMessageWithKeyboard(chatId, result.getResponse(), keyboard);
+        switch (result.getDeliveryMode()) {
+            case NONE -> {
+                return;
             }
 
-            // Определяем тип сообщения для логирования
-            MessageType messageType;
-            if (messageText.startsWith("/")) {
-                messageType = MessageType.COMMAND;
-            } else if (containsSpecialKeyword(messageText)) {
-                messageType = MessageType.SPECIAL_KEYWORD;
-            } else {
-                messageType = MessageType.AI_REQUEST;
+            // Ответ AI доставляется асинхронно
+            case STREAMING, DEFERRED -> {
+                deliverAiAnswer(chatId, userId, userName, messageText, result, isGroup, startTime);
+                return;
             }
 
-            // Логируем в БД
-            long responseTime = System.currentTimeMillis() - startTime;
-            databaseService.logMessage(
-                    chatId, userId, userName,
-                    messageText, result.getResponse(),
-                    messageType, isGroup, responseTime
-            );
+            // НОВАЯ ФУНКЦИЯ: Обработка анимации рулетки
+            case ROULETTE_ANIMATION -> handleRouletteWithAnimation(chatId, result.getResponse());
+
+            case TEXT -> sendMessageWithKeyboard(chatId, result.getResponse(), result.getKeyboard());
         }
+
+        // Логируем в БД
+        logResponse(chatId, userId, userName, messageText, result.getResponse(), messageType, isGroup, startTime);
     }
 
     /**
-     * НОВЫЙ МЕТОД: Обрабатывает рулетку с анимацией
+     * Доставляет ответ AI, логирует его и отправляет объединённый запрос по сообщениям,
+     * пришедшим за это время (см. AiRequestCollapser)
      */
-    private void handleRouletteWithAnimation(Long chatId, String finalMessage) {
-        try {
-            // 1. Отправляем сообщение о запуске рулетки
-            sendSimpleMessage(chatId, "🎰 **Запускаем рулетку удачи!**\n\nКрутим... 🎲");
-
-            // 2. Отправляем анимацию слот-машины
-            SendDice sendDice = new SendDice();
-            sendDice.setChatId(chatId.toString());
-            sendDice.setEmoji("🎰"); // Эмодзи слот-машины для анимации
-            execute(sendDice);
+    private void deliverAiAnswer(Long chatId, Long userId, String userName, String messageText,
+                                 MessageProcessor.ProcessingResult result, boolean isGroup, long startTime) {
+        CompletableFuture<String> delivered;
+        if (result.getDeliveryMode() == DeliveryMode.STREAMING) {
+            // Ответ в потоковом режиме доставляется по мере генерации
+            delivered = deliverStreamingAnswer(chatId, result.getStreamingPrompt(), result.getTier());
+        } else {
+            // Ответ ещё в пути: поток обработки освобождается, доставка - в очереди чата
+            CompletableFuture<String> sent = new CompletableFuture<>();
+            result.getDeferredResponse().thenAccept(answer -> dispatchCompletion(chatId, sent, () -> {
+                try {
+                    sendMessageWithKeyboard(chatId, answer, null);
+                } finally {
+                    sent.complete(answer);
+                }
+            }));
+            delivered = sent;
+        }
 
-            // 3. Ждём завершения анимации
-            Thread.sleep(ROULETTE_ANIMATION_DELAY);
+        // Продолжение выполняется в очереди чата; слот чата освобождается при любом исходе
+        delivered.whenComplete((answer, error) -> {
+            try {
+                if (answer != null) {
+                    logResponse(chatId, userId, userName, messageText, answer, result.getMessageType(),
+                            isGroup, startTime);
+                }
+            } finally {
+                deliverFollowUp(chatId, isGroup, result.getAiSlot());
+            }
+        });
+    }
 
-            // 4. Отправляем результат
-            sendSimpleMessage(chatId, finalMessage);
+    private void deliverFollowUp(Long chatId, boolean isGroup, long aiSlot) {
+        MessageProcessor.FollowUp followUp = messageProcessor.completeAiRequest(chatId, isGroup, aiSlot);
+        if (followUp != null) {
+            deliverAiAnswer(chatId, followUp.userId(), followUp.userName(), followUp.text(), followUp.result(),
+                    isGroup, System.currentTimeMillis());
+        }
+    }
 
-            logger.info("🎰 Рулетка с анимацией выполнена для чата {}", chatId);
+    /**
+     * Доставляет потоковый ответ AI: первое сообщение сразу, дальше редактирование на месте
+     * @return полный текст ответа для логирования
+     */
+    private CompletableFuture<String> deliverStreamingAnswer(Long chatId, String prompt, GenerationTiers.Tier tier) {
+        StreamingReplySender reply = new StreamingReplySender(this, outboundQueue, formatter, chatId,
+                STREAM_EDIT_INTERVAL);
+        CompletableFuture<String> delivered = new CompletableFuture<>();
+        // Фрагменты приходят в потоке HTTP-клиента, завершение выполняется в очереди чата
+        messageProcessor.streamAiAnswer(chatId, prompt, tier, reply::onChunk).thenAccept(answer ->
+                dispatchCompletion(chatId, delivered, () -> delivered.complete(reply.finish(answer))));
+        return delivered;
+    }
 
-        } catch (TelegramApiException e) {
-            logger.error("❌ Ошибка при отправке анимации рулетки: {}", e.getMessage());
-            // Fallback: отправляем результат без анимации
-            sendSimpleMessage(chatId, finalMessage);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.warn("⚠️ Анимация рулетки была прервана");
-            sendSimpleMessage(chatId, finalMessage);
+    /**
+     * Ставит завершение доставки в очередь чата; если очередь переполнена, future завершается ошибкой,
+     * чтобы чат не остался с занятым слотом AI
+     */
+    private void dispatchCompletion(Long chatId, CompletableFuture<String> delivered, Runnable completion) {
+        if (!updateDispatcher.dispatch(chatId, completion)) {
+            logger.warn("⚠️ Ответ AI для чата {} не доставлен: очередь переполнена", chatId);
+            delivered.completeExceptionally(new RejectedExecutionException("Очередь чата " + chatId + " переполнена"));
         }
     }
 
     /**
-     * Проверяет, содержит ли сообщение специальные ключевые слова
+     * Логирует ответ в БД (для асинхронных ответов - после доставки)
      */
-    private boolean containsSpecialKeyword(String messageText) {
-        String lowerText = messageText.toLowerCase();
-        return lowerText.contains("бот") || lowerText.contains("ботяра") ||
-                lowerText.contains("попи") || lowerText.contains("java") ||
-                lowerText.contains("жаби") || lowerText.contains("jabi") ||
-                lowerText.contains("го") || lowerText.contains("go") ||
-                // НОВЫЕ КЛЮЧЕВЫЕ СЛОВА
-                lowerText.contains("анекдот") || lowerText.contains("шутка") ||
-                lowerText.contains("погода") || lowerText.contains("прогноз") ||
-                lowerText.contains("гороскоп") || lowerText.contains("зодиак") ||
-                lowerText.contains("lucky") || lowerText.contains("рулетка");
+    private void logResponse(Long chatId, Long userId, String userName, String messageText,
+                             String response, MessageType messageType, boolean isGroup, long startTime) {
+        long responseTime = System.currentTimeMillis() - startTime;
+        databaseService.logMessage(
+                chatId, userId, userName,
+                messageText, response,
+                messageType, isGroup, responseTime
+        );
+    }
+
+    /**
+     * Обрабатывает рулетку с анимацией.
+     * Результат отправляется отложенным продолжением, поток обработки не блокируется.
+     */
+    private void handleRouletteWithAnimation(Long chatId, String finalMessage) {
+        // 1. Отправляем сообщение о запуске рулетки
+        sendSimpleMessage(chatId, responseTemplates.getRouletteStartMessage());
+
+        // 2. Отправляем анимацию слот-машины
+        SendDice sendDice = new SendDice();
+        sendDice.setChatId(chatId.toString());
+        sendDice.setEmoji("🎰"); // Эмодзи слот-машины для анимации
+
+        outboundQueue.enqueue(chatId, () -> execute(sendDice)).whenComplete((dice, error) -> {
+            if (error != null) {
+                logger.error("❌ Ошибка при отправке анимации рулетки: {}", error.getMessage());
+                // Fallback: отправляем результат без анимации
+                sendSimpleMessage(chatId, finalMessage);
+                return;
+            }
+
+            // 3. Результат отправим после завершения анимации
+            delayedReplyScheduler.schedule(chatId, ROULETTE_ANIMATION_DELAY,
+                    () -> sendSimpleMessage(chatId, finalMessage));
+            logger.info("🎰 Рулетка с анимацией запущена для чата {}", chatId);
+        });
     }
 
     /**
@@ -267,7 +341,8 @@ public class TelegramAiBot extends TelegramLongPollingBot {
     }
 
     /**
-     * Отправляет сообщение с автоматическим разбиением на части
+     * Отправляет сообщение с автоматическим разбиением на части.
+     * Части ставятся в очередь исходящих, темп отправки определяют лимиты Telegram.
      */
     private void sendMessageWithKeyboard(Long chatId, String text, InlineKeyboardMarkup keyboard) {
         List<String> messageParts = MessageSplitter.splitMessage(text);
@@ -278,57 +353,59 @@ public class TelegramAiBot extends TelegramLongPollingBot {
             InlineKeyboardMarkup currentKeyboard = (i == messageParts.size() - 1) ? keyboard : null;
 
             sendTextMessage(chatId, part, currentKeyboard);
-
-            // Добавляем задержку между сообщениями (кроме последнего)
-            if (i < messageParts.size() - 1) {
-                try {
-                    Thread.sleep(MESSAGE_DELAY);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.warn("⚠️ Прервана отправка сообщений");
-                    break;
-                }
-            }
         }
 
         if (messageParts.size() > 1) {
-            logger.info("📤 Отправлено {} частей сообщения в чат {}", messageParts.size(), chatId);
+            logger.info("📤 В очередь поставлено {} частей сообщения для чата {}", messageParts.size(), chatId);
         }
     }
 
     /**
-     * Отправляет одно текстовое сообщение
+     * Ставит одно текстовое сообщение в очередь исходящих.
+     * Повторы при 429/5xx и dead letters обеспечивает OutboundMessageQueue.
+     */
+    private CompletableFuture<Message> sendTextMessage(Long chatId, String text, InlineKeyboardMarkup keyboard) {
+        return outboundQueue.enqueue(chatId, text, () -> executeTextMessage(chatId, text, keyboard));
+    }
+
+    /**
+     * Отправляет одно текстовое сообщение (выполняется очередью исходящих).
+     * Markdown заранее преобразуется в HTML, поэтому ошибка разбора разметки - исключение,
+     * а не обычный путь с повторной отправкой.
      */
-    private void sendTextMessage(Long chatId, String text, InlineKeyboardMarkup keyboard) {
+    private Message executeTextMessage(Long chatId, String text, InlineKeyboardMarkup keyboard)
+            throws TelegramApiException {
         try {
             SendMessage message = SendMessage.builder()
                     .chatId(chatId.toString())
-                    .text(text)
-                    .parseMode("Markdown")
+                    .text(formatter.toHtml(text))
+                    .parseMode(TelegramFormatter.PARSE_MODE)
                     .disableWebPagePreview(true)
                     .replyMarkup(keyboard)
                     .build();
 
-            execute(message);
+            Message sent = execute(message);
             logger.debug("✅ Отправлено сообщение в чат {}: {} символов", chatId, text.length());
+            return sent;
 
         } catch (TelegramApiException e) {
-            logger.error("❌ Ошибка при отправке сообщения в чат {}: {}", chatId, e.getMessage());
-            // Если ошибка форматирования, пробуем без Markdown
-            if (e.getMessage().contains("parse")) {
-                try {
-                    SendMessage plainMessage = SendMessage.builder()
-                            .chatId(chatId.toString())
-                            .text(text)
-                            .replyMarkup(keyboard)
-                            .build();
-
-                    execute(plainMessage);
-                    logger.debug("✅ Сообщение отправлено без форматирования");
-                } catch (TelegramApiException retry) {
-                    logger.error("❌ Повторная ошибка при отправке сообщения: {}", retry.getMessage());
-                }
+            // Если ошибка форматирования, пробуем без разметки; остальные ошибки решает очередь
+            if (e.getMessage() == null || !e.getMessage().contains("parse")) {
+                throw e;
             }
+
+            formatter.recordFallback();
+            logger.warn("⚠️ Telegram отклонил разметку в сообщении для чата {}, отправляем без форматирования: {}",
+                    chatId, e.getMessage());
+            SendMessage plainMessage = SendMessage.builder()
+                    .chatId(chatId.toString())
+                    .text(text)
+                    .replyMarkup(keyboard)
+                    .build();
+
+            Message sent = execute(plainMessage);
+            logger.debug("✅ Сообщение отправлено без форматирования");
+            return sent;
         }
     }
 
@@ -20,6 +20,14 @@ public class BotConfig {
     private String jokeApiUrl = "https://www.anekdot.ru/rss/export_j.xml";
     private String horoscopeApiUrl = "";
 
+    // Режим получения обновлений: polling (по умолчанию) или webhook
+    private String mode = "polling";
+    private String webhookUrl;
+    private String webhookSecret;
+
+    // Токен служебных эндпоинтов (заголовок X-Admin-Token); пусто - эндпоинты отключены
+    private String adminToken;
+
     // Spring автоматически заполнит поля из application.properties
     public String getBotToken() { return token; }
     public void setToken(String token) { this.token = token; }
@@ -43,6 +51,26 @@ public class BotConfig {
     public String getHoroscopeApiUrl() { return horoscopeApiUrl; }
     public void setHoroscopeApiUrl(String horoscopeApiUrl) { this.horoscopeApiUrl = horoscopeApiUrl; }
 
+    public String getMode() { return mode; }
+    public void setMode(String mode) { this.mode = mode; }
+
+    public String getWebhookUrl() { return webhookUrl; }
+    public void setWebhookUrl(String webhookUrl) { this.webhookUrl = webhookUrl; }
+
+    public String getWebhookSecret() { return webhookSecret; }
+    public void setWebhookSecret(String webhookSecret) { this.webhookSecret = webhookSecret; }
+
+    public boolean hasWebhookSecret() {
+        return webhookSecret != null && !webhookSecret.isBlank();
+    }
+
+    public String getAdminToken() { return adminToken; }
+    public void setAdminToken(String adminToken) { this.adminToken = adminToken; }
+
+    public boolean isWebhookMode() {
+        return "webhook".equalsIgnoreCase(mode);
+    }
+
     public boolean isValid() {
         boolean basicValid = token != null && !token.isBlank()
                 && username != null && !username.isBlank()
@@ -67,6 +95,7 @@ public class BotConfig {
         logger.info("Google AI API: {}", googleApiKey != null && !googleApiKey.isBlank() ? "✅ Настроен" : "❌ Не настроен");
         logger.info("Weather API: {}", weatherApiKey != null && !weatherApiKey.isBlank() && !weatherApiKey.contains("YOUR_") ? "✅ Настроен" : "❌ Не настроен");
         logger.info("Jokes API URL: {}", jokeApiUrl);
+        logger.info("Режим обновлений: {}", isWebhookMode() ? "webhook → " + webhookUrl : "long polling");
         logger.info("========================");
     }
 }
\ No newline at end of file
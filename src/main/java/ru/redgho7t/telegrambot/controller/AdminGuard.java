@@ -0,0 +1,43 @@
+package ru.redgho7t.telegrambot.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.redgho7t.telegrambot.config.BotConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Проверка доступа к служебным эндпоинтам по заголовку X-Admin-Token.
+ * Если telegram.bot.admin-token не задан, служебные эндпоинты отключены
+ */
+@Component
+public class AdminGuard {
+    private static final Logger logger = LoggerFactory.getLogger(AdminGuard.class);
+    public static final String TOKEN_HEADER = "X-Admin-Token";
+
+    private final BotConfig config;
+
+    @Autowired
+    public AdminGuard(BotConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Сравнивает токен за постоянное время
+     * @param action описание действия для лога отказа
+     */
+    public boolean isAuthorized(String token, String action) {
+        String expected = config.getAdminToken();
+        boolean authorized = expected != null && !expected.isBlank() && token != null
+                && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                        token.getBytes(StandardCharsets.UTF_8));
+        if (!authorized) {
+            logger.warn("⚠️ Служебный запрос отклонён ({}): {}", action,
+                    expected == null || expected.isBlank() ? "admin-token не настроен" : "неверный токен");
+        }
+        return authorized;
+    }
+}
@@ -0,0 +1,54 @@
+package ru.redgho7t.telegrambot.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import ru.redgho7t.telegrambot.service.AiAnswerCache;
+
+import java.util.Map;
+
+/**
+ * Управление кэшем ответов AI.
+ * Очистка возвращает запросы в платный API, поэтому требует X-Admin-Token
+ */
+@RestController
+@RequestMapping("/api/ai-cache")
+public class AiCacheController {
+
+    private final AiAnswerCache aiAnswerCache;
+    private final AdminGuard adminGuard;
+
+    @Autowired
+    public AiCacheController(AiAnswerCache aiAnswerCache, AdminGuard adminGuard) {
+        this.aiAnswerCache = aiAnswerCache;
+        this.adminGuard = adminGuard;
+    }
+
+    /**
+     * GET /api/ai-cache
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> metrics() {
+        return ResponseEntity.ok(aiAnswerCache.getMetrics());
+    }
+
+    /**
+     * DELETE /api/ai-cache - очистить весь кэш
+     * DELETE /api/ai-cache?prompt=... - удалить ответ на конкретный запрос
+     */
+    @DeleteMapping
+    public ResponseEntity<Map<String, Object>> invalidate(
+            @RequestHeader(name = AdminGuard.TOKEN_HEADER, required = false) String adminToken,
+            @RequestParam(name = "prompt", required = false) String prompt) {
+        if (!adminGuard.isAuthorized(adminToken, "очистка кэша AI")) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (prompt != null) {
+            return aiAnswerCache.invalidate(prompt)
+                    ? ResponseEntity.ok(Map.of("removed", 1))
+                    : ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(Map.of("removed", aiAnswerCache.invalidateAll()));
+    }
+}
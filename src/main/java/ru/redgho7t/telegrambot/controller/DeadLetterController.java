@@ -0,0 +1,82 @@
+package ru.redgho7t.telegrambot.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import ru.redgho7t.telegrambot.entity.DeadLetter;
+import ru.redgho7t.telegrambot.service.DeadLetterService;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Просмотр и разбор недоставленных сообщений.
+ * Записи содержат переписку пользователей, поэтому доступ только с X-Admin-Token,
+ * а текст в списке сокращается до начала сообщения
+ */
+@RestController
+@RequestMapping("/api/dead-letters")
+public class DeadLetterController {
+    private static final int PAYLOAD_PREVIEW_CHARS = 40;
+
+    private final DeadLetterService deadLetterService;
+    private final AdminGuard adminGuard;
+
+    @Autowired
+    public DeadLetterController(DeadLetterService deadLetterService, AdminGuard adminGuard) {
+        this.deadLetterService = deadLetterService;
+        this.adminGuard = adminGuard;
+    }
+
+    /**
+     * GET /api/dead-letters?limit=50 или /api/dead-letters?chatId=...
+     */
+    @GetMapping
+    public ResponseEntity<List<Map<String, Object>>> list(
+            @RequestHeader(name = AdminGuard.TOKEN_HEADER, required = false) String adminToken,
+            @RequestParam(name = "limit", defaultValue = "50") int limit,
+            @RequestParam(name = "chatId", required = false) Long chatId) {
+        if (!adminGuard.isAuthorized(adminToken, "просмотр dead letters")) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        List<DeadLetter> letters = chatId != null
+                ? deadLetterService.getByChat(chatId)
+                : deadLetterService.getRecent(Math.max(1, Math.min(limit, 500)));
+        return ResponseEntity.ok(letters.stream().map(DeadLetterController::summary).toList());
+    }
+
+    /**
+     * DELETE /api/dead-letters/{id}
+     */
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(
+            @RequestHeader(name = AdminGuard.TOKEN_HEADER, required = false) String adminToken,
+            @PathVariable("id") Long id) {
+        if (!adminGuard.isAuthorized(adminToken, "удаление dead letter")) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return deadLetterService.delete(id)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Запись для списка: вместо полного текста - его начало и длина
+     */
+    private static Map<String, Object> summary(DeadLetter letter) {
+        String payload = letter.getPayload();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("id", letter.getId());
+        summary.put("chatId", letter.getChatId());
+        summary.put("payloadPreview", payload == null || payload.length() <= PAYLOAD_PREVIEW_CHARS
+                ? payload : payload.substring(0, PAYLOAD_PREVIEW_CHARS) + "…");
+        summary.put("payloadLength", payload == null ? 0 : payload.length());
+        summary.put("errorCode", letter.getErrorCode());
+        summary.put("errorMessage", letter.getErrorMessage());
+        summary.put("attempts", letter.getAttempts());
+        summary.put("createdAt", letter.getCreatedAt());
+        return summary;
+    }
+}
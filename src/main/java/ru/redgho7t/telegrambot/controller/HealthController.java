@@ -5,9 +5,19 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import ru.redgho7t.telegrambot.service.AiAnswerCache;
+import ru.redgho7t.telegrambot.service.AiRequestCollapser;
+import ru.redgho7t.telegrambot.service.ConversationContextStore;
 import ru.redgho7t.telegrambot.service.DatabaseService;
+import ru.redgho7t.telegrambot.service.DelayedReplyScheduler;
+import ru.redgho7t.telegrambot.service.GoogleAiService;
+import ru.redgho7t.telegrambot.service.MessageProcessor;
+import ru.redgho7t.telegrambot.service.OutboundMessageQueue;
+import ru.redgho7t.telegrambot.service.TelegramFormatter;
+import ru.redgho7t.telegrambot.service.UpdateDispatcher;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -21,6 +31,33 @@ public class HealthController {
     @Autowired
     private DatabaseService databaseService;
 
+    @Autowired
+    private UpdateDispatcher updateDispatcher;
+
+    @Autowired
+    private DelayedReplyScheduler delayedReplyScheduler;
+
+    @Autowired
+    private OutboundMessageQueue outboundQueue;
+
+    @Autowired
+    private GoogleAiService googleAiService;
+
+    @Autowired
+    private AiAnswerCache aiAnswerCache;
+
+    @Autowired
+    private TelegramFormatter telegramFormatter;
+
+    @Autowired
+    private MessageProcessor messageProcessor;
+
+    @Autowired
+    private AiRequestCollapser aiRequestCollapser;
+
+    @Autowired
+    private ConversationContextStore conversationContext;
+
     /**
      * Простая проверка работоспособности
      * GET /api/health
@@ -51,6 +88,27 @@ public class HealthController {
         }
     }
 
+    /**
+     * Метрики внутренних очередей и сервисов
+     * GET /api/metrics
+     */
+    @GetMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> metrics() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("dispatcher", updateDispatcher.getMetrics());
+        response.put("delayed_replies", delayedReplyScheduler.getMetrics());
+        response.put("outbound", outboundQueue.getMetrics());
+        response.put("gemini", googleAiService.getMetrics());
+        response.put("ai_cache", aiAnswerCache.getMetrics());
+        response.put("formatting", telegramFormatter.getMetrics());
+        response.put("handlers", messageProcessor.getHandlerMetrics());
+        response.put("group_prefilter", messageProcessor.getGroupFilterMetrics());
+        response.put("intent_classifier", messageProcessor.getIntentClassifierMetrics());
+        response.put("ai_collapse", aiRequestCollapser.getMetrics());
+        response.put("conversation_context", conversationContext.getMetrics());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Подробная информация о боте
      * GET /api/info
@@ -0,0 +1,63 @@
+package ru.redgho7t.telegrambot.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import ru.redgho7t.telegrambot.service.PromptTemplateEngine;
+
+import java.util.Map;
+
+/**
+ * Просмотр и горячая замена шаблонов запросов к AI.
+ * Замена и перечитывание меняют запросы к модели, поэтому требуют X-Admin-Token
+ */
+@RestController
+@RequestMapping("/api/prompt-templates")
+public class PromptTemplateController {
+
+    private final PromptTemplateEngine promptTemplateEngine;
+    private final AdminGuard adminGuard;
+
+    @Autowired
+    public PromptTemplateController(PromptTemplateEngine promptTemplateEngine, AdminGuard adminGuard) {
+        this.promptTemplateEngine = promptTemplateEngine;
+        this.adminGuard = adminGuard;
+    }
+
+    /**
+     * GET /api/prompt-templates
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, String>> list() {
+        return ResponseEntity.ok(promptTemplateEngine.getTemplates());
+    }
+
+    /**
+     * PUT /api/prompt-templates - заменить набор целиком: {"фраза": "префикс запроса", ...}
+     */
+    @PutMapping
+    public ResponseEntity<Map<String, String>> replace(
+            @RequestHeader(name = AdminGuard.TOKEN_HEADER, required = false) String adminToken,
+            @RequestBody Map<String, String> templates) {
+        if (!adminGuard.isAuthorized(adminToken, "замена шаблонов запросов")) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        promptTemplateEngine.replaceTemplates(templates);
+        return ResponseEntity.ok(promptTemplateEngine.getTemplates());
+    }
+
+    /**
+     * POST /api/prompt-templates/reload - перечитать файл telegram.bot.prompt-templates.file
+     */
+    @PostMapping("/reload")
+    public ResponseEntity<Map<String, String>> reload(
+            @RequestHeader(name = AdminGuard.TOKEN_HEADER, required = false) String adminToken) {
+        if (!adminGuard.isAuthorized(adminToken, "перечитывание шаблонов запросов")) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return promptTemplateEngine.reloadFromFile()
+                ? ResponseEntity.ok(promptTemplateEngine.getTemplates())
+                : ResponseEntity.unprocessableEntity().build();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.redgho7t.telegrambot.controller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import ru.redgho7t.telegrambot.TelegramAiBot;
+import ru.redgho7t.telegrambot.config.BotConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Приём обновлений Telegram в режиме webhook
+ * Обновление сразу передаётся в диспетчер, Telegram получает ответ без ожидания обработки
+ */
+@RestController
+@RequestMapping("/api/telegram")
+public class WebhookController {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookController.class);
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final TelegramAiBot bot;
+    private final BotConfig config;
+
+    @Autowired
+    public WebhookController(TelegramAiBot bot, BotConfig config) {
+        this.bot = bot;
+        this.config = config;
+    }
+
+    /**
+     * Приём обновления от Telegram
+     * POST /api/telegram/webhook
+     */
+    @PostMapping("/webhook")
+    public ResponseEntity<Void> receiveUpdate(
+            @RequestHeader(name = SECRET_HEADER, required = false) String secretToken,
+            @RequestBody Update update) {
+        if (!config.isWebhookMode()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        if (!isSecretValid(secretToken)) {
+            logger.warn("⚠️ Webhook-запрос с неверным секретом отклонён");
+            return ResponseEntity.status(401).build();
+        }
+
+        bot.onUpdateReceived(update);
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * Сравнивает секрет за постоянное время. Без настроенного секрета запросы отклоняются
+     */
+    private boolean isSecretValid(String secretToken) {
+        if (!config.hasWebhookSecret()) {
+            return false;
+        }
+        return secretToken != null && MessageDigest.isEqual(
+                config.getWebhookSecret().getBytes(StandardCharsets.UTF_8),
+                secretToken.getBytes(StandardCharsets.UTF_8));
+    }
+}
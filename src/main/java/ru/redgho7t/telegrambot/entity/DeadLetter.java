@@ -0,0 +1,118 @@
+package ru.redgho7t.telegrambot.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Entity для сообщений, которые не удалось доставить в Telegram
+ * Хранится для разбора и ручной повторной отправки
+ */
+@Entity
+@Table(name = "dead_letters")
+public class DeadLetter {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "chat_id", nullable = false)
+    private Long chatId;
+
+    @Column(name = "payload", columnDefinition = "TEXT")
+    private String payload;
+
+    @Column(name = "error_code")
+    private Integer errorCode;
+
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    private String errorMessage;
+
+    @Column(name = "attempts")
+    private Integer attempts;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    // Конструкторы
+    public DeadLetter() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public DeadLetter(Long chatId, String payload, Integer errorCode, String errorMessage, Integer attempts) {
+        this();
+        this.chatId = chatId;
+        this.payload = payload;
+        this.errorCode = errorCode;
+        this.errorMessage = errorMessage;
+        this.attempts = attempts;
+    }
+
+    // Getters и Setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getChatId() {
+        return chatId;
+    }
+
+    public void setChatId(Long chatId) {
+        this.chatId = chatId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Integer getErrorCode() {
+        return errorCode;
+    }
+
+    public void setErrorCode(Integer errorCode) {
+        this.errorCode = errorCode;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "DeadLetter{" +
+                "id=" + id +
+                ", chatId=" + chatId +
+                ", errorCode=" + errorCode +
+                ", attempts=" + attempts +
+                ", createdAt=" + createdAt +
+                '}';
+    }
+}
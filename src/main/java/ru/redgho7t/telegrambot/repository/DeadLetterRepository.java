@@ -0,0 +1,31 @@
+package ru.redgho7t.telegrambot.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.redgho7t.telegrambot.entity.DeadLetter;
+
+import java.util.List;
+
+/**
+ * Repository для недоставленных сообщений
+ */
+@Repository
+public interface DeadLetterRepository extends JpaRepository<DeadLetter, Long> {
+
+    /**
+     * Получить последние N недоставленных сообщений
+     * @param limit количество сообщений
+     * @return список сообщений (новые сначала)
+     */
+    @Query("SELECT dl FROM DeadLetter dl ORDER BY dl.createdAt DESC LIMIT :limit")
+    List<DeadLetter> findRecent(@Param("limit") int limit);
+
+    /**
+     * Получить недоставленные сообщения конкретного чата
+     * @param chatId ID чата
+     * @return список сообщений (новые сначала)
+     */
+    List<DeadLetter> findByChatIdOrderByCreatedAtDesc(Long chatId);
+}
@@ -8,6 +8,7 @@ import ru.redgho7t.telegrambot.entity.MessageLog;
 import ru.redgho7t.telegrambot.entity.MessageLog.MessageType;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -93,6 +94,18 @@ public interface MessageLogRepository extends JpaRepository<MessageLog, Long> {
     List<MessageLog> searchMessagesByKeyword(@Param("chatId") Long chatId,
                                              @Param("keyword") String keyword);
 
+    /**
+     * Последние тексты пользователей заданных типов - обучающая выборка для классификатора намерений
+     * @param types типы сообщений
+     * @param limit максимальное количество записей
+     * @return пары [userMessage, messageType], новые сначала
+     */
+    @Query("SELECT ml.userMessage, ml.messageType FROM MessageLog ml " +
+            "WHERE ml.messageType IN :types AND ml.userMessage IS NOT NULL " +
+            "ORDER BY ml.createdAt DESC LIMIT :limit")
+    List<Object[]> findUserMessagesByTypes(@Param("types") Collection<MessageType> types,
+                                           @Param("limit") int limit);
+
     /**
      * Удалить старые логи (старше N дней) для экономии места
      * @param beforeDate дата, старше которой удалять логи
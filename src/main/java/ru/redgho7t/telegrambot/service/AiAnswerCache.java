@@ -0,0 +1,173 @@
+package ru.redgho7t.telegrambot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Кэш ответов AI по нормализованному тексту запроса.
+ * Вытеснение LRU с ограничением по занимаемой памяти (а не по числу записей) и TTL.
+ */
+@Service
+public class AiAnswerCache {
+    private static final Logger logger = LoggerFactory.getLogger(AiAnswerCache.class);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // Примерные накладные расходы на запись: узел LinkedHashMap, объекты String, Entry
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long ttlNanos;
+
+    // accessOrder = true: первая запись - давно не использованная
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    public AiAnswerCache(@Value("${telegram.bot.ai-cache.enabled:true}") boolean enabled,
+                         @Value("${telegram.bot.ai-cache.max-bytes:8388608}") long maxBytes,
+                         @Value("${telegram.bot.ai-cache.ttl-minutes:60}") long ttlMinutes) {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+        logger.info("AiAnswerCache инициализирован: enabled={}, maxBytes={}, ttl={} мин",
+                enabled, maxBytes, ttlMinutes);
+    }
+
+    /**
+     * Возвращает сохранённый ответ или null
+     */
+    public String get(String prompt) {
+        if (!enabled) {
+            return null;
+        }
+        String key = normalize(prompt);
+        long now = System.nanoTime();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && now - entry.createdNanos > ttlNanos) {
+                removeEntry(key);
+                expirations++;
+                entry = null;
+            }
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return entry.answer;
+        }
+    }
+
+    /**
+     * Сохраняет ответ, вытесняя давно не использованные записи при превышении лимита памяти
+     */
+    public void put(String prompt, String answer) {
+        if (!enabled || answer == null || answer.isBlank()) {
+            return;
+        }
+        String key = normalize(prompt);
+        Entry entry = new Entry(answer, weigh(key, answer), System.nanoTime());
+        if (entry.weight > maxBytes) {
+            return;
+        }
+
+        synchronized (this) {
+            removeEntry(key);
+            entries.put(key, entry);
+            totalBytes += entry.weight;
+
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                totalBytes -= eldest.next().getValue().weight;
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Удаляет ответ на конкретный запрос
+     * @return true, если запись была в кэше
+     */
+    public synchronized boolean invalidate(String prompt) {
+        boolean removed = removeEntry(normalize(prompt));
+        if (removed) {
+            invalidations++;
+        }
+        return removed;
+    }
+
+    /**
+     * Очищает кэш полностью
+     * @return количество удалённых записей
+     */
+    public synchronized int invalidateAll() {
+        int count = entries.size();
+        entries.clear();
+        totalBytes = 0;
+        invalidations += count;
+        logger.info("🧹 Кэш ответов AI очищен, удалено записей: {}", count);
+        return count;
+    }
+
+    /**
+     * Возвращает метрики кэша
+     */
+    public synchronized Map<String, Object> getMetrics() {
+        long lookups = hits + misses;
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("entries", entries.size());
+        metrics.put("memory_bytes", totalBytes);
+        metrics.put("max_bytes", maxBytes);
+        metrics.put("hits", hits);
+        metrics.put("misses", misses);
+        metrics.put("hit_rate", lookups == 0 ? 0.0 : (double) hits / lookups);
+        metrics.put("evictions", evictions);
+        metrics.put("expirations", expirations);
+        metrics.put("invalidations", invalidations);
+        return metrics;
+    }
+
+    private boolean removeEntry(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.weight;
+        }
+        return removed != null;
+    }
+
+    /**
+     * Ключ: регистр и пробелы не различаются. Тот же ключ использует объединение
+     * одновременных запросов в GoogleAiService, чтобы оба уровня совпадали
+     */
+    public static String normalize(String prompt) {
+        return WHITESPACE.matcher(prompt.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Вес записи в байтах: строки в памяти хранятся в UTF-16
+     */
+    private static long weigh(String key, String answer) {
+        return 2L * (key.length() + answer.length()) + ENTRY_OVERHEAD_BYTES;
+    }
+
+    private record Entry(String answer, long weight, long createdNanos) {
+    }
+}
@@ -0,0 +1,202 @@
+package ru.redgho7t.telegrambot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Не больше одного запроса к AI на чат.
+ * Сообщения, пришедшие, пока ответ ещё генерируется, копятся и после доставки ответа
+ * уходят одним дополнительным запросом - вместо отдельного запроса и ответа на каждое.
+ * Каждый владелец слота получает свой номер: если зависший запрос всё же завершится после того,
+ * как слот перехватил новый, его release игнорируется и второй параллельный запрос не запускается.
+ */
+@Service
+public class AiRequestCollapser {
+    private static final Logger logger = LoggerFactory.getLogger(AiRequestCollapser.class);
+
+    private final Map<Long, ChatState> chats = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final int maxPending;
+    private final long staleNanos;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong followUps = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong staleReleased = new AtomicLong();
+    private final AtomicLong staleIgnored = new AtomicLong();
+    private final AtomicLong owners = new AtomicLong();
+
+    /**
+     * Результат acquireOrQueue: сообщение отложено, слот занят другим запросом
+     */
+    public static final long NOT_ACQUIRED = -1;
+
+    /**
+     * Сообщение, ожидающее своей очереди к AI
+     */
+    public record Turn(Long userId, String userName, String text) {
+    }
+
+    /**
+     * Результат release: накопленные сообщения и номер владельца слота для запроса по ним
+     */
+    public record Handoff(long owner, List<Turn> turns) {
+        private static final Handoff RELEASED = new Handoff(NOT_ACQUIRED, List.of());
+    }
+
+    @Autowired
+    public AiRequestCollapser(@Value("${telegram.bot.ai-collapse.enabled:true}") boolean enabled,
+                              @Value("${telegram.bot.ai-collapse.max-pending:10}") int maxPending,
+                              @Value("${telegram.bot.ai-collapse.stale-ms:180000}") long staleMs) {
+        this.enabled = enabled;
+        this.maxPending = maxPending;
+        this.staleNanos = TimeUnit.MILLISECONDS.toNanos(staleMs);
+        logger.info("AiRequestCollapser: {}, до {} сообщений в очереди чата",
+                enabled ? "включён" : "выключен", maxPending);
+    }
+
+    /**
+     * Занимает слот чата или ставит сообщение в очередь
+     * @return номер владельца слота - запрос можно отправлять сейчас (после ответа вызвать {@link #release}
+     *         с этим номером); {@link #NOT_ACQUIRED} - сообщение отложено до завершения текущего запроса
+     */
+    public long acquireOrQueue(Long chatId, Turn turn) {
+        if (!enabled) {
+            return 0;
+        }
+        long[] acquired = {NOT_ACQUIRED};
+        long now = System.nanoTime();
+        chats.compute(chatId, (id, state) -> {
+            if (state == null) {
+                acquired[0] = owners.incrementAndGet();
+                return new ChatState(now, acquired[0]);
+            }
+            if (now - state.startedNanos > staleNanos) {
+                // Ответ на прошлый запрос так и не завершился - не держим чат вечно
+                staleReleased.incrementAndGet();
+                logger.warn("⚠️ Запрос к AI в чате {} не завершился вовремя, слот освобождён", chatId);
+                acquired[0] = owners.incrementAndGet();
+                state.owner = acquired[0];
+                state.startedNanos = now;
+                return state;
+            }
+            if (state.pending.size() < maxPending) {
+                state.pending.add(turn);
+                queued.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+            return state;
+        });
+        if (acquired[0] != NOT_ACQUIRED) {
+            started.incrementAndGet();
+        }
+        return acquired[0];
+    }
+
+    /**
+     * Завершает текущий запрос чата
+     * @param owner номер, полученный от acquireOrQueue или предыдущего release
+     * @return накопленные сообщения и новый владелец слота для запроса по ним;
+     *         пустой список - слот освобождён или уже перехвачен другим запросом
+     */
+    public Handoff release(Long chatId, long owner) {
+        if (!enabled) {
+            return Handoff.RELEASED;
+        }
+        List<Turn> drained = new ArrayList<>();
+        long[] next = {NOT_ACQUIRED};
+        boolean[] stale = new boolean[1];
+        chats.compute(chatId, (id, state) -> {
+            if (state == null) {
+                return null;
+            }
+            if (state.owner != owner) {
+                // Слот уже перехвачен после таймаута: накопленное обработает новый владелец
+                stale[0] = true;
+                return state;
+            }
+            if (state.pending.isEmpty()) {
+                return null;
+            }
+            drained.addAll(state.pending);
+            state.pending.clear();
+            next[0] = owners.incrementAndGet();
+            state.owner = next[0];
+            state.startedNanos = System.nanoTime();
+            return state;
+        });
+        if (stale[0]) {
+            staleIgnored.incrementAndGet();
+            logger.warn("⚠️ Запоздавший запрос к AI в чате {} завершился после перехвата слота", chatId);
+            return Handoff.RELEASED;
+        }
+        if (drained.isEmpty()) {
+            return Handoff.RELEASED;
+        }
+        started.incrementAndGet();
+        followUps.incrementAndGet();
+        return new Handoff(next[0], drained);
+    }
+
+    /**
+     * Один запрос из накопленных сообщений; в группах - с именами авторов
+     */
+    public static String merge(List<Turn> turns, boolean isGroup) {
+        if (turns.size() == 1 && !isGroup) {
+            return turns.get(0).text();
+        }
+        StringBuilder merged = new StringBuilder();
+        for (Turn turn : turns) {
+            if (merged.length() > 0) {
+                merged.append('\n');
+            }
+            if (isGroup) {
+                merged.append(turn.userName()).append(": ");
+            }
+            merged.append(turn.text());
+        }
+        return merged.toString();
+    }
+
+    /**
+     * Метрики: сколько запросов отправлено и сколько сообщений объединено без отдельного вызова
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("in_flight_chats", chats.size());
+        metrics.put("requests_started", started.get());
+        metrics.put("messages_queued", queued.get());
+        metrics.put("follow_up_requests", followUps.get());
+        // Каждое объединение экономит запрос к AI и ответное сообщение
+        metrics.put("requests_saved", queued.get() - followUps.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("stale_released", staleReleased.get());
+        metrics.put("stale_ignored", staleIgnored.get());
+        return metrics;
+    }
+
+    private static final class ChatState {
+        private long startedNanos;
+        private long owner;
+        private final List<Turn> pending = new ArrayList<>();
+
+        ChatState(long startedNanos, long owner) {
+            this.startedNanos = startedNanos;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ru.redgho7t.telegrambot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Контекст разговора в памяти: последние реплики каждого чата для многоходовых запросов к Gemini.
+ * Реплики хранятся кольцом с бюджетом токенов; вытесненные старые реплики сжимаются
+ * в краткое содержание, которое передаётся модели вместо них - размер запроса не растёт с разговором.
+ * Чаты без активности дольше idle-minutes забываются.
+ */
+@Service
+public class ConversationContextStore {
+    private static final Logger logger = LoggerFactory.getLogger(ConversationContextStore.class);
+    // Из каждой вытесненной реплики в краткое содержание попадает только начало
+    private static final int SUMMARY_LINE_CHARS = 160;
+
+    /**
+     * Реплика разговора
+     * @param fromUser true - пользователь, false - модель
+     */
+    public record Turn(boolean fromUser, String text, int tokens) {
+    }
+
+    /**
+     * Снимок контекста для запроса: краткое содержание старой части и последние реплики
+     */
+    public record Conversation(String summary, List<Turn> turns) {
+        public static final Conversation EMPTY = new Conversation("", List.of());
+
+        public boolean isEmpty() {
+            return summary.isEmpty() && turns.isEmpty();
+        }
+    }
+
+    private final Map<Long, ChatContext> chats = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final int maxTokens;
+    private final int maxTurns;
+    private final int summaryMaxChars;
+    private final long idleNanos;
+    private final int maxChats;
+
+    private final AtomicLong compactedTurns = new AtomicLong();
+    private final AtomicLong idleEvicted = new AtomicLong();
+    private final AtomicLong overflowEvicted = new AtomicLong();
+
+    @Autowired
+    public ConversationContextStore(@Value("${telegram.bot.context.enabled:true}") boolean enabled,
+                                    @Value("${telegram.bot.context.max-tokens:1500}") int maxTokens,
+                                    @Value("${telegram.bot.context.max-turns:12}") int maxTurns,
+                                    @Value("${telegram.bot.context.summary-max-chars:800}") int summaryMaxChars,
+                                    @Value("${telegram.bot.context.idle-minutes:30}") long idleMinutes,
+                                    @Value("${telegram.bot.context.max-chats:5000}") int maxChats) {
+        this.enabled = enabled;
+        this.maxTokens = maxTokens;
+        this.maxTurns = maxTurns;
+        this.summaryMaxChars = summaryMaxChars;
+        this.idleNanos = TimeUnit.MINUTES.toNanos(idleMinutes);
+        this.maxChats = maxChats;
+        logger.info("ConversationContextStore: {}, бюджет {} токенов / {} реплик на чат, забывание через {} мин",
+                enabled ? "включён" : "выключен", maxTokens, maxTurns, idleMinutes);
+    }
+
+    /**
+     * Контекст чата для следующего запроса
+     */
+    public Conversation get(Long chatId) {
+        if (!enabled) {
+            return Conversation.EMPTY;
+        }
+        ChatContext context = chats.get(chatId);
+        if (context == null) {
+            return Conversation.EMPTY;
+        }
+        synchronized (context) {
+            context.lastAccessNanos = System.nanoTime();
+            return new Conversation(context.summary.toString(), List.copyOf(context.turns));
+        }
+    }
+
+    /**
+     * Запоминает вопрос и ответ модели
+     */
+    public void append(Long chatId, String prompt, String answer) {
+        if (!enabled) {
+            return;
+        }
+        if (!chats.containsKey(chatId) && chats.size() >= maxChats) {
+            evictIdlest();
+        }
+        ChatContext context = chats.computeIfAbsent(chatId, id -> new ChatContext());
+        synchronized (context) {
+            context.lastAccessNanos = System.nanoTime();
+            context.add(new Turn(true, prompt, estimateTokens(prompt)));
+            context.add(new Turn(false, answer, estimateTokens(answer)));
+
+            // Вытесняем парами, чтобы контекст начинался с реплики пользователя, как требует Gemini.
+            // Последняя пара остаётся, даже если одна больше бюджета
+            while (context.turns.size() > 2 && (context.tokens > maxTokens || context.turns.size() > maxTurns)) {
+                compact(context, context.removeOldest());
+                compact(context, context.removeOldest());
+            }
+        }
+    }
+
+    /**
+     * Забывает разговор в чате
+     * @return был ли контекст
+     */
+    public boolean clear(Long chatId) {
+        return chats.remove(chatId) != null;
+    }
+
+    /**
+     * Удаляет контексты чатов без активности
+     */
+    @Scheduled(fixedDelayString = "${telegram.bot.context.sweep-interval-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        int before = chats.size();
+        chats.entrySet().removeIf(entry -> now - entry.getValue().lastAccessNanos > idleNanos);
+        int evicted = before - chats.size();
+        if (evicted > 0) {
+            idleEvicted.addAndGet(evicted);
+            logger.debug("🧹 Забыт контекст {} неактивных чатов", evicted);
+        }
+    }
+
+    /**
+     * Грубая оценка числа токенов без токенизатора: ~3 символа на токен для кириллицы и кода
+     */
+    static int estimateTokens(String text) {
+        return text.length() / 3 + 1;
+    }
+
+    /**
+     * Добавляет начало реплики в краткое содержание; при переполнении забывается самая старая его часть
+     */
+    private void compact(ChatContext context, Turn turn) {
+        compactedTurns.incrementAndGet();
+        StringBuilder summary = context.summary;
+        if (summary.length() > 0) {
+            summary.append('\n');
+        }
+        summary.append(turn.fromUser() ? "Пользователь: " : "Бот: ");
+        String text = turn.text().strip();
+        int end = Math.min(text.length(), SUMMARY_LINE_CHARS);
+        int sentence = text.indexOf(". ");
+        if (sentence > 0 && sentence < end) {
+            end = sentence + 1;
+        }
+        summary.append(text, 0, end).append(end < text.length() ? "…" : "");
+
+        if (summary.length() > summaryMaxChars) {
+            int cut = summary.indexOf("\n", summary.length() - summaryMaxChars);
+            summary.delete(0, cut >= 0 ? cut + 1 : summary.length() - summaryMaxChars);
+        }
+    }
+
+    private void evictIdlest() {
+        Long idlest = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<Long, ChatContext> entry : chats.entrySet()) {
+            long access = entry.getValue().lastAccessNanos;
+            if (idlest == null || access - oldest < 0) {
+                idlest = entry.getKey();
+                oldest = access;
+            }
+        }
+        if (idlest != null && chats.remove(idlest) != null) {
+            overflowEvicted.incrementAndGet();
+        }
+    }
+
+    /**
+     * Метрики: число чатов, реплик и токенов в памяти, сжатия и вытеснения
+     */
+    public Map<String, Object> getMetrics() {
+        long turns = 0;
+        long tokens = 0;
+        long summaryChars = 0;
+        for (ChatContext context : chats.values()) {
+            synchronized (context) {
+                turns += context.turns.size();
+                tokens += context.tokens;
+                summaryChars += context.summary.length();
+            }
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("chats", chats.size());
+        metrics.put("turns", turns);
+        metrics.put("estimated_tokens", tokens);
+        metrics.put("summary_chars", summaryChars);
+        metrics.put("compacted_turns", compactedTurns.get());
+        metrics.put("idle_evicted", idleEvicted.get());
+        metrics.put("overflow_evicted", overflowEvicted.get());
+        return metrics;
+    }
+
+    private static final class ChatContext {
+        private final ArrayDeque<Turn> turns = new ArrayDeque<>();
+        private final StringBuilder summary = new StringBuilder();
+        private int tokens;
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        void add(Turn turn) {
+            turns.addLast(turn);
+            tokens += turn.tokens();
+        }
+
+        Turn removeOldest() {
+            Turn turn = turns.removeFirst();
+            tokens -= turn.tokens();
+            return turn;
+        }
+    }
+}
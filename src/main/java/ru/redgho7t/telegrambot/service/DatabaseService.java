@@ -10,6 +10,7 @@ import ru.redgho7t.telegrambot.entity.MessageLog.MessageType;
 import ru.redgho7t.telegrambot.repository.MessageLogRepository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -119,6 +120,22 @@ public class DatabaseService {
         }
     }
 
+    /**
+     * Получает последние тексты пользователей заданных типов
+     * @param types типы сообщений
+     * @param limit максимальное количество записей
+     * @return пары [userMessage, messageType]
+     */
+    @Transactional(readOnly = true)
+    public List<Object[]> getUserMessages(Collection<MessageType> types, int limit) {
+        try {
+            return messageLogRepository.findUserMessagesByTypes(types, limit);
+        } catch (Exception e) {
+            logger.error("Ошибка при получении сообщений типов {}: {}", types, e.getMessage(), e);
+            return List.of();
+        }
+    }
+
     /**
      * Получает статистику по боту
      * @return объект со статистикой
@@ -0,0 +1,79 @@
+package ru.redgho7t.telegrambot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.redgho7t.telegrambot.entity.DeadLetter;
+import ru.redgho7t.telegrambot.repository.DeadLetterRepository;
+
+import java.util.List;
+
+/**
+ * Хранилище сообщений, которые так и не удалось доставить в Telegram
+ */
+@Service
+@Transactional
+public class DeadLetterService {
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterService.class);
+
+    private final DeadLetterRepository deadLetterRepository;
+
+    @Autowired
+    public DeadLetterService(DeadLetterRepository deadLetterRepository) {
+        this.deadLetterRepository = deadLetterRepository;
+        logger.info("DeadLetterService инициализирован");
+    }
+
+    /**
+     * Сохраняет недоставленное сообщение
+     * @param chatId ID чата
+     * @param payload текст сообщения (может быть null для служебных запросов)
+     * @param errorCode код ошибки Telegram, если есть
+     * @param errorMessage текст ошибки
+     * @param attempts количество сделанных попыток
+     */
+    public void save(Long chatId, String payload, Integer errorCode, String errorMessage, int attempts) {
+        try {
+            deadLetterRepository.save(new DeadLetter(chatId, payload, errorCode, errorMessage, attempts));
+            logger.warn("📭 Сообщение для чата {} перемещено в dead letters после {} попыток: {}",
+                    chatId, attempts, errorMessage);
+        } catch (Exception e) {
+            // Не бросаем исключение, чтобы не нарушить работу очереди
+            logger.error("❌ Не удалось сохранить dead letter для чата {}: {}", chatId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Получает последние недоставленные сообщения
+     */
+    public List<DeadLetter> getRecent(int limit) {
+        return deadLetterRepository.findRecent(limit);
+    }
+
+    /**
+     * Получает недоставленные сообщения чата
+     */
+    public List<DeadLetter> getByChat(Long chatId) {
+        return deadLetterRepository.findByChatIdOrderByCreatedAtDesc(chatId);
+    }
+
+    /**
+     * Удаляет разобранное сообщение
+     */
+    public boolean delete(Long id) {
+        if (!deadLetterRepository.existsById(id)) {
+            return false;
+        }
+        deadLetterRepository.deleteById(id);
+        return true;
+    }
+
+    /**
+     * Количество сообщений в хранилище
+     */
+    public long count() {
+        return deadLetterRepository.count();
+    }
+}
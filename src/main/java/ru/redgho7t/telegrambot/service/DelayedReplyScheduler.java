@@ -0,0 +1,136 @@
+package ru.redgho7t.telegrambot.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Планировщик отложенных ответов (например, результат рулетки после анимации).
+ * Поток обработки не ждёт: продолжение ставится на таймер и по срабатыванию
+ * возвращается в очередь своего чата через UpdateDispatcher.
+ */
+@Service
+public class DelayedReplyScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(DelayedReplyScheduler.class);
+
+    private final UpdateDispatcher updateDispatcher;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Map<Long, Set<ScheduledFuture<?>>> pendingByChat = new ConcurrentHashMap<>();
+
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong fired = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    @Autowired
+    public DelayedReplyScheduler(UpdateDispatcher updateDispatcher) {
+        this.updateDispatcher = updateDispatcher;
+        // Таймеру хватает одного потока: сама работа выполняется в пуле диспетчера
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "delayed-reply-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        logger.info("DelayedReplyScheduler инициализирован");
+    }
+
+    /**
+     * Планирует продолжение для чата
+     * @param chatId ID чата
+     * @param delayMs задержка в миллисекундах
+     * @param continuation действие, которое выполнится в очереди чата
+     * @return handle для отмены
+     */
+    public ScheduledFuture<?> schedule(Long chatId, long delayMs, Runnable continuation) {
+        ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+
+        self[0] = timer.schedule(() -> {
+            forget(chatId, self[0]);
+            fired.incrementAndGet();
+            updateDispatcher.dispatch(chatId, continuation);
+        }, delayMs, TimeUnit.MILLISECONDS);
+
+        pendingByChat.compute(chatId, (id, chatPending) -> {
+            Set<ScheduledFuture<?>> current = chatPending != null ? chatPending : ConcurrentHashMap.newKeySet();
+            current.add(self[0]);
+            return current;
+        });
+        // Задача могла сработать раньше, чем попала в набор
+        if (self[0].isDone()) {
+            forget(chatId, self[0]);
+        }
+        scheduled.incrementAndGet();
+        return self[0];
+    }
+
+    /**
+     * Отменяет все ожидающие продолжения чата
+     * @return количество отменённых продолжений
+     */
+    public int cancel(Long chatId) {
+        Set<ScheduledFuture<?>> chatPending = pendingByChat.remove(chatId);
+        if (chatPending == null) {
+            return 0;
+        }
+
+        int count = 0;
+        for (ScheduledFuture<?> future : chatPending) {
+            if (future.cancel(false)) {
+                count++;
+            }
+        }
+        cancelled.addAndGet(count);
+        logger.info("🛑 Отменено {} отложенных ответов для чата {}", count, chatId);
+        return count;
+    }
+
+    /**
+     * Возвращает количество ожидающих продолжений
+     */
+    public int getPendingCount() {
+        return timer.getQueue().size();
+    }
+
+    /**
+     * Возвращает метрики планировщика
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("pending", getPendingCount());
+        metrics.put("chats_with_pending", pendingByChat.size());
+        metrics.put("scheduled", scheduled.get());
+        metrics.put("fired", fired.get());
+        metrics.put("cancelled", cancelled.get());
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        int pending = getPendingCount();
+        if (pending > 0) {
+            logger.warn("⚠️ Остановка планировщика, не выполнено отложенных ответов: {}", pending);
+        }
+        timer.shutdownNow();
+    }
+
+    private void forget(Long chatId, ScheduledFuture<?> future) {
+        if (future == null) {
+            return;
+        }
+        pendingByChat.computeIfPresent(chatId, (id, chatPending) -> {
+            chatPending.remove(future);
+            return chatPending.isEmpty() ? null : chatPending;
+        });
+    }
+}
@@ -0,0 +1,210 @@
+package ru.redgho7t.telegrambot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.redgho7t.telegrambot.utils.SlidingWindowCounter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул API-ключей Gemini. Квота RPM/TPM считается на ключ, поэтому пропускная способность
+ * растёт с числом ключей. Выбор - плавный взвешенный round-robin (как в nginx) среди ключей,
+ * которые не остывают после 429 и не выбрали минутный лимит запросов и токенов.
+ */
+@Service
+public class GeminiKeyPool {
+    private static final Logger logger = LoggerFactory.getLogger(GeminiKeyPool.class);
+    private static final int WINDOW_SECONDS = 60;
+
+    private final List<ApiKey> keys;
+    private final int rpmLimit;
+    private final long tpmLimit;
+    private final long cooldownMs;
+    private final AtomicLong exhausted = new AtomicLong();
+
+    /**
+     * Ключ пула с его счётчиками
+     */
+    public static final class ApiKey {
+        private final String value;
+        private final String label;
+        private final int weight;
+        private int currentWeight;
+        private final SlidingWindowCounter requests = new SlidingWindowCounter(WINDOW_SECONDS);
+        private final SlidingWindowCounter tokens = new SlidingWindowCounter(WINDOW_SECONDS);
+        private final AtomicLong totalRequests = new AtomicLong();
+        private final AtomicLong totalTokens = new AtomicLong();
+        private final AtomicLong throttled = new AtomicLong();
+        private volatile long cooldownUntilNanos;
+
+        ApiKey(String value, int weight) {
+            this.value = value;
+            this.weight = weight;
+            // В метриках и логах - только конец ключа
+            this.label = "…" + value.substring(Math.max(0, value.length() - 4));
+        }
+
+        public String value() { return value; }
+        public String label() { return label; }
+
+        private boolean coolingDown(long now) {
+            return cooldownUntilNanos - now > 0;
+        }
+    }
+
+    /**
+     * @param keyList ключи через запятую, у каждого можно указать вес: "KEY1,KEY2:2"
+     * @param singleKey прежняя настройка с одним ключом - используется, если список пуст
+     */
+    @Autowired
+    public GeminiKeyPool(@Value("${telegram.bot.google-api-keys:}") String keyList,
+                         @Value("${telegram.bot.google-api-key:}") String singleKey,
+                         @Value("${telegram.bot.gemini.keys.rpm-limit:0}") int rpmLimit,
+                         @Value("${telegram.bot.gemini.keys.tpm-limit:0}") long tpmLimit,
+                         @Value("${telegram.bot.gemini.keys.cooldown-ms:30000}") long cooldownMs) {
+        List<ApiKey> parsed = new ArrayList<>();
+        for (String entry : (keyList.isBlank() ? singleKey : keyList).split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int colon = trimmed.lastIndexOf(':');
+            int weight = 1;
+            if (colon > 0) {
+                try {
+                    weight = Math.max(1, Integer.parseInt(trimmed.substring(colon + 1).trim()));
+                    trimmed = trimmed.substring(0, colon).trim();
+                } catch (NumberFormatException e) {
+                    // Двоеточие - часть ключа
+                }
+            }
+            parsed.add(new ApiKey(trimmed, weight));
+        }
+        this.keys = List.copyOf(parsed);
+        this.rpmLimit = rpmLimit;
+        this.tpmLimit = tpmLimit;
+        this.cooldownMs = cooldownMs;
+        logger.info("GeminiKeyPool: {} ключей, лимит на ключ {} RPM / {} TPM (0 - без лимита)",
+                keys.size(), rpmLimit, tpmLimit);
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * Выбирает ключ для следующего запроса и учитывает запрос в его окне.
+     * Если доступных ключей нет, возвращается тот, что освободится раньше всех:
+     * ответ 429 обработают повторы GoogleAiService.
+     * @throws IllegalStateException если ключи не настроены
+     */
+    public synchronized ApiKey acquire() {
+        if (keys.isEmpty()) {
+            throw new IllegalStateException("Не настроен ни один ключ Gemini API");
+        }
+        long now = System.nanoTime();
+        ApiKey best = null;
+        int total = 0;
+        for (ApiKey key : keys) {
+            if (!isAvailable(key, now)) {
+                continue;
+            }
+            key.currentWeight += key.weight;
+            total += key.weight;
+            if (best == null || key.currentWeight > best.currentWeight) {
+                best = key;
+            }
+        }
+
+        if (best != null) {
+            best.currentWeight -= total;
+        } else {
+            exhausted.incrementAndGet();
+            best = keys.get(0);
+            for (ApiKey key : keys) {
+                if (key.cooldownUntilNanos - best.cooldownUntilNanos < 0) {
+                    best = key;
+                }
+            }
+        }
+        best.requests.add(1);
+        best.totalRequests.incrementAndGet();
+        return best;
+    }
+
+    /**
+     * Есть ли ключ, готовый к запросу прямо сейчас
+     */
+    public synchronized boolean hasAvailableKey() {
+        long now = System.nanoTime();
+        for (ApiKey key : keys) {
+            if (isAvailable(key, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Учитывает израсходованные токены (usageMetadata.totalTokenCount)
+     */
+    public void recordTokens(ApiKey key, long tokens) {
+        if (tokens > 0) {
+            key.tokens.add(tokens);
+            key.totalTokens.addAndGet(tokens);
+        }
+    }
+
+    /**
+     * Ключ получил 429: не выбирается до конца Retry-After или cooldown-ms
+     */
+    public void recordThrottled(ApiKey key, long retryAfterMs) {
+        long delay = retryAfterMs >= 0 ? retryAfterMs : cooldownMs;
+        key.cooldownUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        key.throttled.incrementAndGet();
+        logger.warn("🔑 Ключ Gemini {} получил 429, пауза {} мс", key.label, delay);
+    }
+
+    private boolean isAvailable(ApiKey key, long now) {
+        if (key.coolingDown(now)) {
+            return false;
+        }
+        if (rpmLimit > 0 && key.requests.sum() >= rpmLimit) {
+            return false;
+        }
+        return tpmLimit <= 0 || key.tokens.sum() < tpmLimit;
+    }
+
+    /**
+     * Метрики по ключам: запросы и токены за минуту, 429 и остывание
+     */
+    public Map<String, Object> getMetrics() {
+        long now = System.nanoTime();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("keys", keys.size());
+        metrics.put("exhausted", exhausted.get());
+        Map<String, Object> perKey = new LinkedHashMap<>();
+        for (ApiKey key : keys) {
+            Map<String, Object> keyMetrics = new LinkedHashMap<>();
+            keyMetrics.put("weight", key.weight);
+            keyMetrics.put("requests_1m", key.requests.sum());
+            keyMetrics.put("tokens_1m", key.tokens.sum());
+            keyMetrics.put("requests", key.totalRequests.get());
+            keyMetrics.put("tokens", key.totalTokens.get());
+            keyMetrics.put("throttled", key.throttled.get());
+            keyMetrics.put("cooldown_ms", key.coolingDown(now)
+                    ? TimeUnit.NANOSECONDS.toMillis(key.cooldownUntilNanos - now) : 0);
+            perKey.put(key.label, keyMetrics);
+        }
+        metrics.put("per_key", perKey);
+        return metrics;
+    }
+}
@@ -0,0 +1,140 @@
+package ru.redgho7t.telegrambot.service;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Ответ Gemini (generateContent или один фрагмент потока): текст первого кандидата,
+ * причина завершения и расход токенов.
+ * Разбирается потоково из JsonReader без дерева JsonObject: из тела читаются только нужные поля,
+ * остальное пропускается, текст ответа не копируется повторно.
+ * @param text текст частей первого кандидата без "мыслей" модели; пустая строка, если текста нет
+ * @param finishReason STOP, MAX_TOKENS, SAFETY и т.д.; null, если ответ не завершён (фрагмент потока)
+ * @param promptTokens токены запроса; -1, если API их не сообщил
+ */
+public record GeminiResponse(String text, String finishReason, int promptTokens, int outputTokens,
+                             int thoughtTokens, int totalTokens) {
+
+    /**
+     * Разбирает объект ответа
+     */
+    public static GeminiResponse read(JsonReader reader) throws IOException {
+        Decoder decoder = new Decoder();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "candidates" -> decoder.readCandidates(reader);
+                case "usageMetadata" -> decoder.readUsage(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return decoder.build();
+    }
+
+    public boolean hasUsage() {
+        return totalTokens >= 0;
+    }
+
+    private static final class Decoder {
+        // Обычно часть одна: строку берём как есть, буфер нужен только для нескольких частей
+        private String text;
+        private StringBuilder joined;
+        private String finishReason;
+        private int promptTokens = -1;
+        private int outputTokens = -1;
+        private int thoughtTokens = -1;
+        private int totalTokens = -1;
+
+        void readCandidates(JsonReader reader) throws IOException {
+            reader.beginArray();
+            boolean first = true;
+            while (reader.hasNext()) {
+                if (first) {
+                    readCandidate(reader);
+                    first = false;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endArray();
+        }
+
+        private void readCandidate(JsonReader reader) throws IOException {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "content" -> readContent(reader);
+                    case "finishReason" -> finishReason = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        private void readContent(JsonReader reader) throws IOException {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("parts".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readPart(reader);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        private void readPart(JsonReader reader) throws IOException {
+            String partText = null;
+            boolean thought = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "text" -> partText = reader.nextString();
+                    case "thought" -> thought = reader.nextBoolean();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (partText != null && !thought) {
+                append(partText);
+            }
+        }
+
+        private void append(String part) {
+            if (text == null) {
+                text = part;
+                return;
+            }
+            if (joined == null) {
+                joined = new StringBuilder(text.length() + part.length()).append(text);
+            }
+            joined.append(part);
+        }
+
+        void readUsage(JsonReader reader) throws IOException {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "promptTokenCount" -> promptTokens = reader.nextInt();
+                    case "candidatesTokenCount" -> outputTokens = reader.nextInt();
+                    case "thoughtsTokenCount" -> thoughtTokens = reader.nextInt();
+                    case "totalTokenCount" -> totalTokens = reader.nextInt();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+
+        GeminiResponse build() {
+            String result = joined != null ? joined.toString() : text != null ? text : "";
+            return new GeminiResponse(result, finishReason, promptTokens, outputTokens, thoughtTokens, totalTokens);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ru.redgho7t.telegrambot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.redgho7t.telegrambot.utils.LatencyRecorder;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Уровни задержки запросов к Gemini: бюджет "размышлений", лимит длины ответа и температура.
+ * FAST - группы и короткие сообщения (без размышлений, короткий ответ), STANDARD - обычные вопросы,
+ * DEEP - явный запрос подробного ответа (/ask). По каждому уровню ведётся своя гистограмма задержек.
+ */
+@Component
+public class GenerationTiers {
+    private static final Logger logger = LoggerFactory.getLogger(GenerationTiers.class);
+
+    public enum Tier {
+        FAST, STANDARD, DEEP
+    }
+
+    /**
+     * Параметры generationConfig
+     * @param thinkingBudget токены на размышления: 0 - выключены, -1 - на усмотрение модели
+     * @param maxOutputTokens у gemini-2.5 включает и размышления, поэтому должен быть заметно больше thinkingBudget
+     */
+    public record Settings(int thinkingBudget, int maxOutputTokens, double temperature) {
+    }
+
+    private final Map<Tier, Settings> settings = new EnumMap<>(Tier.class);
+    private final Map<Tier, LatencyRecorder> latency = new EnumMap<>(Tier.class);
+    private final Map<Tier, LatencyRecorder> firstChunk = new EnumMap<>(Tier.class);
+    private final int shortPromptChars;
+
+    @Autowired
+    public GenerationTiers(@Value("${telegram.bot.gemini.tier.fast.thinking-budget:0}") int fastThinking,
+                           @Value("${telegram.bot.gemini.tier.fast.max-output-tokens:1024}") int fastTokens,
+                           @Value("${telegram.bot.gemini.tier.fast.temperature:0.7}") double fastTemperature,
+                           @Value("${telegram.bot.gemini.tier.standard.thinking-budget:1024}") int standardThinking,
+                           @Value("${telegram.bot.gemini.tier.standard.max-output-tokens:3072}") int standardTokens,
+                           @Value("${telegram.bot.gemini.tier.standard.temperature:0.8}") double standardTemperature,
+                           @Value("${telegram.bot.gemini.tier.deep.thinking-budget:4096}") int deepThinking,
+                           @Value("${telegram.bot.gemini.tier.deep.max-output-tokens:12288}") int deepTokens,
+                           @Value("${telegram.bot.gemini.tier.deep.temperature:1.0}") double deepTemperature,
+                           @Value("${telegram.bot.gemini.tier.short-prompt-chars:120}") int shortPromptChars) {
+        settings.put(Tier.FAST, new Settings(fastThinking, fastTokens, fastTemperature));
+        settings.put(Tier.STANDARD, new Settings(standardThinking, standardTokens, standardTemperature));
+        settings.put(Tier.DEEP, new Settings(deepThinking, deepTokens, deepTemperature));
+        for (Tier tier : Tier.values()) {
+            latency.put(tier, new LatencyRecorder());
+            firstChunk.put(tier, new LatencyRecorder());
+        }
+        this.shortPromptChars = shortPromptChars;
+        logger.info("GenerationTiers: {}", settings);
+    }
+
+    /**
+     * Уровень для обычного сообщения (не /ask): в группах и на короткие сообщения - FAST
+     */
+    public Tier select(String prompt, boolean isGroup) {
+        return isGroup || prompt.length() <= shortPromptChars ? Tier.FAST : Tier.STANDARD;
+    }
+
+    public Settings settings(Tier tier) {
+        return settings.get(tier);
+    }
+
+    /**
+     * Полное время ответа API, в том числе неудачного (startNanos - System.nanoTime() перед отправкой)
+     */
+    public void recordLatency(Tier tier, long startNanos) {
+        latency.get(tier).recordSince(startNanos);
+    }
+
+    /**
+     * Время до первого фрагмента потокового ответа
+     */
+    public void recordFirstChunk(Tier tier, long startNanos) {
+        firstChunk.get(tier).recordSince(startNanos);
+    }
+
+    /**
+     * Параметры и задержки (p50/p95) по уровням
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Tier tier : Tier.values()) {
+            Settings tierSettings = settings.get(tier);
+            Map<String, Object> tierMetrics = new LinkedHashMap<>();
+            tierMetrics.put("thinking_budget", tierSettings.thinkingBudget());
+            tierMetrics.put("max_output_tokens", tierSettings.maxOutputTokens());
+            tierMetrics.put("temperature", tierSettings.temperature());
+            tierMetrics.put("latency", latency.get(tier).getMetrics());
+            tierMetrics.put("first_chunk", firstChunk.get(tier).getMetrics());
+            metrics.put(tier.name().toLowerCase(Locale.ROOT), tierMetrics);
+        }
+        return metrics;
+    }
+}
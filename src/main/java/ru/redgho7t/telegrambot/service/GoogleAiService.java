@@ -1,30 +1,117 @@
 package ru.redgho7t.telegrambot.service;
 
 import okhttp3.*;
+import okio.BufferedSource;
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
 import org.springframework.beans.factory.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import ru.redgho7t.telegrambot.service.ConversationContextStore.Conversation;
+import ru.redgho7t.telegrambot.service.ConversationContextStore.Turn;
+import ru.redgho7t.telegrambot.service.GenerationTiers.Settings;
+import ru.redgho7t.telegrambot.service.GenerationTiers.Tier;
+import ru.redgho7t.telegrambot.utils.AdaptiveConcurrencyLimiter;
+import ru.redgho7t.telegrambot.utils.AdaptiveConcurrencyLimiter.Outcome;
+import ru.redgho7t.telegrambot.utils.SingleFlight;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Сервис для взаимодействия с Google Gemini API через Google AI Studio.
  * ИСПРАВЛЕНО: Добавлен @Service для Spring DI
+ * Запросы выполняются асинхронно (Call.enqueue): поток не ждёт сеть,
+ * число одновременных запросов ограничено Dispatcher'ом OkHttp.
+ * Одинаковые одновременные запросы объединяются в один вызов API,
+ * повторные запросы обслуживаются из AiAnswerCache. Запросы с контекстом разговора
+ * зависят от истории чата, поэтому не кэшируются и не объединяются.
+ * Параллелизм регулируется адаптивным лимитом (AIMD): 503 и 429 при исчерпании всех ключей
+ * снижают лимит, такие ответы повторяются с backoff с учётом Retry-After.
+ * Ключ API выбирается из GeminiKeyPool на каждую попытку и передаётся только в заголовке
+ * x-goog-api-key (не в URL, чтобы не попадать в логи); после 429 повтор идёт с другим ключом.
+ * Модель выбирает ModelRouter: медленный ответ дублируется в запасную модель, ошибка - переход к следующей.
  */
 @Service
 public class GoogleAiService {
+    private static final Logger logger = LoggerFactory.getLogger(GoogleAiService.class);
     private static final String BASE_URL =
             "https://generativelanguage.googleapis.com/v1beta/models/";
-    private static final String MODEL = "gemini-2.5-flash";
+    // Gemini дублирует задержку в теле ошибки: "retryDelay": "27s"
+    private static final Pattern RETRY_DELAY = Pattern.compile("\"retryDelay\"\\s*:\\s*\"(\\d+)(?:\\.\\d+)?s\"");
+    private static final long NO_RETRY = -1;
 
     private final OkHttpClient httpClient;
     private final Gson gson;
-    private final String apiKey;
+    private final GeminiKeyPool keyPool;
+    private final ModelRouter router;
+    private final AiAnswerCache answerCache;
+    private final GenerationTiers tiers;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final int maxAttempts;
+    private final long retryBaseMs;
+    private final long retryMaxMs;
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong contextualRequests = new AtomicLong();
+    // Расход токенов по usageMetadata ответов
+    private final AtomicLong promptTokens = new AtomicLong();
+    private final AtomicLong outputTokens = new AtomicLong();
+    private final AtomicLong thoughtTokens = new AtomicLong();
+    private final Map<String, AtomicLong> finishReasons = new ConcurrentHashMap<>();
+
+    // Выполняющиеся вызовы по тексту запроса, нормализованному так же, как ключ кэша
+    private final SingleFlight<String, CompletableFuture<String>> requestFlights =
+            new SingleFlight<>(future -> future);
+    private final SingleFlight<String, SharedStream> streamFlights =
+            new SingleFlight<>(stream -> stream.result);
+
+    public GoogleAiService(@Value("${telegram.bot.gemini.max-concurrent-requests:16}") int maxConcurrentRequests,
+                           @Value("${telegram.bot.gemini.limiter.initial:4}") int initialLimit,
+                           @Value("${telegram.bot.gemini.limiter.min:1}") int minLimit,
+                           @Value("${telegram.bot.gemini.limiter.max-queue:50}") int maxQueue,
+                           @Value("${telegram.bot.gemini.limiter.queue-timeout-ms:5000}") long queueTimeoutMs,
+                           @Value("${telegram.bot.gemini.retry.max-attempts:3}") int maxAttempts,
+                           @Value("${telegram.bot.gemini.retry.base-ms:1000}") long retryBaseMs,
+                           @Value("${telegram.bot.gemini.retry.max-ms:30000}") long retryMaxMs,
+                           AiAnswerCache answerCache,
+                           GenerationTiers tiers,
+                           GeminiKeyPool keyPool,
+                           ModelRouter router) {
+        this.keyPool = keyPool;
+        this.router = router;
+        this.answerCache = answerCache;
+        this.tiers = tiers;
+        this.limiter = new AdaptiveConcurrencyLimiter(
+                initialLimit, minLimit, maxConcurrentRequests, maxQueue, queueTimeoutMs);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBaseMs = retryBaseMs;
+        this.retryMaxMs = retryMaxMs;
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConcurrentRequests);
+        dispatcher.setMaxRequestsPerHost(maxConcurrentRequests);
 
-    public GoogleAiService(@Value("${telegram.bot.google-api-key}") String apiKey) {
-        this.apiKey = apiKey;
         this.httpClient = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(60, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
@@ -34,76 +121,564 @@ public class GoogleAiService {
 
     /**
      * Отправляет запрос к модели Gemini и возвращает текст ответа.
+     * Блокирующая обёртка над sendRequestAsync.
      */
     public String sendRequest(String userMessage) throws IOException {
-        String url = BASE_URL + MODEL + ":generateContent?key=" + apiKey;
-        JsonObject requestBody = createRequestBody(userMessage);
+        return await(sendRequestAsync(userMessage));
+    }
+
+    /**
+     * Асинхронно отправляет запрос к модели Gemini.
+     * Отмена future отменяет HTTP-вызов.
+     */
+    public CompletableFuture<String> sendRequestAsync(String userMessage) {
+        return sendRequestAsync(userMessage, Conversation.EMPTY, Tier.STANDARD);
+    }
+
+    /**
+     * Асинхронно отправляет запрос с предыдущими репликами разговора
+     * @param tier уровень задержки: размышления, длина ответа и температура
+     */
+    public CompletableFuture<String> sendRequestAsync(String userMessage, Conversation conversation, Tier tier) {
+        if (!conversation.isEmpty()) {
+            contextualRequests.incrementAndGet();
+            return call(userMessage, conversation, tier);
+        }
+
+        String key = cacheKey(userMessage, tier);
+        String cached = answerCache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<String> flight = requestFlights.execute(AiAnswerCache.normalize(key), () -> {
+            CompletableFuture<String> call = call(userMessage, Conversation.EMPTY, tier);
+            call.thenAccept(answer -> answerCache.put(key, answer));
+            return call;
+        });
+        // Копия: отмена одним вызывающим не затрагивает остальных
+        return flight.copy();
+    }
+
+    /**
+     * Асинхронно отправляет запрос в потоковом режиме (:streamGenerateContent, SSE).
+     * Каждый новый фрагмент текста передаётся в onChunk из потока OkHttp.
+     * @return future с полным текстом ответа
+     */
+    public CompletableFuture<String> sendStreamingRequestAsync(String userMessage, Consumer<String> onChunk) {
+        return sendStreamingRequestAsync(userMessage, Conversation.EMPTY, Tier.STANDARD, onChunk);
+    }
+
+    /**
+     * Потоковый запрос с предыдущими репликами разговора
+     */
+    public CompletableFuture<String> sendStreamingRequestAsync(String userMessage, Conversation conversation,
+                                                               Tier tier, Consumer<String> onChunk) {
+        if (!conversation.isEmpty()) {
+            contextualRequests.incrementAndGet();
+            return stream(userMessage, conversation, tier, onChunk);
+        }
+
+        String key = cacheKey(userMessage, tier);
+        String cached = answerCache.get(key);
+        if (cached != null) {
+            onChunk.accept(cached);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        SharedStream stream = streamFlights.execute(AiAnswerCache.normalize(key), () -> {
+            SharedStream shared = new SharedStream();
+            stream(userMessage, Conversation.EMPTY, tier, shared::publish).whenComplete((text, error) -> {
+                if (error != null) {
+                    shared.result.completeExceptionally(error);
+                } else {
+                    answerCache.put(key, text);
+                    shared.result.complete(text);
+                }
+            });
+            return shared;
+        });
+        return stream.subscribe(onChunk);
+    }
+
+    /**
+     * Вызов generateContent через ModelRouter с учётом задержки в гистограмме уровня (и для ошибок и таймаутов)
+     */
+    private CompletableFuture<String> call(String userMessage, Conversation conversation, Tier tier) {
+        long start = System.nanoTime();
+        RequestBody body = buildBody(userMessage, conversation, tier);
+        CompletableFuture<String> call = router.execute(tier, false, attempt ->
+                execute(BASE_URL + attempt.model() + ":generateContent", body, false, this::readResponse));
+        call.whenComplete((answer, error) -> tiers.recordLatency(tier, start));
+        return call;
+    }
+
+    /**
+     * Вызов streamGenerateContent через ModelRouter: текст отдаёт только модель, приславшая первый фрагмент.
+     * Отдельно учитываются время до первого фрагмента и полное время
+     */
+    private CompletableFuture<String> stream(String userMessage, Conversation conversation, Tier tier,
+                                             Consumer<String> onChunk) {
+        long start = System.nanoTime();
+        AtomicBoolean firstChunk = new AtomicBoolean();
+        Consumer<String> timedChunk = chunk -> {
+            if (firstChunk.compareAndSet(false, true)) {
+                tiers.recordFirstChunk(tier, start);
+            }
+            onChunk.accept(chunk);
+        };
+        RequestBody body = buildBody(userMessage, conversation, tier);
+        CompletableFuture<String> call = router.execute(tier, true, attempt ->
+                execute(BASE_URL + attempt.model() + ":streamGenerateContent?alt=sse", body, true,
+                        (response, key) -> readStream(response, key, chunk -> {
+                            if (attempt.claim()) {
+                                timedChunk.accept(chunk);
+                            }
+                        })));
+        call.whenComplete((answer, error) -> tiers.recordLatency(tier, start));
+        return call;
+    }
+
+    /**
+     * Ключ кэша и объединения: ответы разных уровней различаются по длине и глубине, поэтому не смешиваются
+     */
+    private static String cacheKey(String prompt, Tier tier) {
+        return tier == Tier.STANDARD ? prompt : "[" + tier.name() + "] " + prompt;
+    }
+
+    /**
+     * Выполняет запрос под адаптивным лимитом, повторяя ответы 429/503.
+     * Повтор безопасен и для потока: статус проверяется до чтения первого фрагмента.
+     * @param streaming длительность потокового ответа не отражает загрузку API и в лимит не передаётся
+     */
+    private <T> CompletableFuture<T> execute(String url, RequestBody body, boolean streaming,
+                                             ResponseHandler<T> handler) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (keyPool.isEmpty()) {
+            result.completeExceptionally(new IOException("Не настроен ни один ключ Gemini API"));
+            return result;
+        }
+        attempt(url, body, streaming, handler, 1, result);
+        return result;
+    }
+
+    private <T> void attempt(String url, RequestBody body, boolean streaming, ResponseHandler<T> handler,
+                             int attempt, CompletableFuture<T> result) {
+        limiter.acquire().whenComplete((permit, rejected) -> {
+            if (rejected != null) {
+                logger.warn("🚦 Запрос к Gemini отклонён лимитером: {}", rejected.getMessage());
+                result.completeExceptionally(unwrap(rejected));
+                return;
+            }
+            if (result.isDone()) {
+                limiter.release(Outcome.IGNORED, -1);
+                return;
+            }
+
+            GeminiKeyPool.ApiKey key = keyPool.acquire();
+            long start = System.nanoTime();
+            CompletableFuture<T> call = enqueue(buildRequest(url, body, key), key, handler);
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) {
+                    call.cancel(true);
+                }
+            });
+
+            call.whenComplete((value, error) -> {
+                Throwable cause = error != null ? unwrap(error) : null;
+                if (cause instanceof GeminiApiException apiError && apiError.getStatusCode() == 429) {
+                    keyPool.recordThrottled(key, apiError.getRetryAfterMs());
+                }
+                limiter.release(outcomeOf(cause), streaming ? -1 : System.nanoTime() - start);
+                if (cause == null) {
+                    result.complete(value);
+                    return;
+                }
+
+                long delay = attempt < maxAttempts ? retryDelayMs(cause, attempt) : NO_RETRY;
+                if (delay == NO_RETRY || result.isDone()) {
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                retries.incrementAndGet();
+                logger.warn("🔁 Повтор запроса к Gemini через {} мс (попытка {}): {}",
+                        delay, attempt + 1, cause.getMessage());
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                        .execute(() -> attempt(url, body, streaming, handler, attempt + 1, result));
+            });
+        });
+    }
+
+    /**
+     * Результат попытки для лимитера. 429 относится к квоте одного ключа: пока в пуле есть
+     * свободный ключ, общий лимит не снижается, ключ остывает в GeminiKeyPool
+     */
+    private Outcome outcomeOf(Throwable error) {
+        if (error == null) {
+            return Outcome.SUCCESS;
+        }
+        if (!isOverloaded(error)) {
+            return Outcome.IGNORED;
+        }
+        boolean keyQuota = ((GeminiApiException) error).getStatusCode() == 429;
+        return keyQuota && keyPool.hasAvailableKey() ? Outcome.IGNORED : Outcome.OVERLOADED;
+    }
+
+    /**
+     * Ошибка означает перегрузку или исчерпание квоты Gemini (429/503)
+     */
+    public static boolean isOverloaded(Throwable error) {
+        return error instanceof GeminiApiException apiError
+                && (apiError.getStatusCode() == 429 || apiError.getStatusCode() == 503);
+    }
+
+    /**
+     * Задержка перед повтором: Retry-After от API или экспоненциальный backoff с jitter.
+     * Повторяются только 429/503; если API просит ждать дольше retry.max-ms, ошибка возвращается сразу.
+     * Квота 429 относится к ключу: если в пуле есть свободный ключ, повтор идёт сразу с ним.
+     */
+    private long retryDelayMs(Throwable error, int attempt) {
+        if (!isOverloaded(error)) {
+            return NO_RETRY;
+        }
+        GeminiApiException apiError = (GeminiApiException) error;
+        if (apiError.getStatusCode() == 429 && keyPool.hasAvailableKey()) {
+            return 0;
+        }
+        long retryAfter = apiError.getRetryAfterMs();
+        if (retryAfter >= 0) {
+            return retryAfter <= retryMaxMs ? retryAfter : NO_RETRY;
+        }
+        long delay = Math.min(retryMaxMs, retryBaseMs << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Метрики объединения запросов, лимитера и повторов
+     */
+    public Map<String, Object> getMetrics() {
+        long hits = requestFlights.getHits() + streamFlights.getHits();
+        long misses = requestFlights.getMisses() + streamFlights.getMisses();
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("coalesce_hits", hits);
+        metrics.put("coalesce_misses", misses);
+        metrics.put("api_calls_saved_ratio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        metrics.put("requests", requestFlights.getMetrics());
+        metrics.put("streams", streamFlights.getMetrics());
+        metrics.put("limiter", limiter.getMetrics());
+        metrics.put("retries", retries.get());
+        metrics.put("contextual_requests", contextualRequests.get());
+
+        Map<String, Object> usage = new LinkedHashMap<>();
+        usage.put("prompt_tokens", promptTokens.get());
+        usage.put("output_tokens", outputTokens.get());
+        usage.put("thought_tokens", thoughtTokens.get());
+        Map<String, Long> reasons = new LinkedHashMap<>();
+        finishReasons.forEach((reason, count) -> reasons.put(reason, count.get()));
+        usage.put("finish_reasons", reasons);
+        metrics.put("usage", usage);
+        metrics.put("tiers", tiers.getMetrics());
+        metrics.put("keys", keyPool.getMetrics());
+        metrics.put("models", router.getMetrics());
+        return metrics;
+    }
+
+    /**
+     * Потоковый ответ, общий для нескольких получателей.
+     * Подключившийся позже сначала получает уже пришедший текст, затем новые фрагменты.
+     */
+    private static class SharedStream {
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final StringBuilder received = new StringBuilder();
+        private final List<Consumer<String>> listeners = new ArrayList<>();
+
+        synchronized CompletableFuture<String> subscribe(Consumer<String> listener) {
+            if (received.length() > 0) {
+                deliver(listener, received.toString());
+            }
+            listeners.add(listener);
+            return result.copy();
+        }
+
+        synchronized void publish(String chunk) {
+            received.append(chunk);
+            for (Consumer<String> listener : listeners) {
+                deliver(listener, chunk);
+            }
+        }
 
-        RequestBody body = RequestBody.create(
-                gson.toJson(requestBody),
+        private static void deliver(Consumer<String> listener, String chunk) {
+            try {
+                listener.accept(chunk);
+            } catch (Exception e) {
+                // Ошибка одного получателя не должна прерывать поток для остальных
+                logger.warn("⚠️ Ошибка получателя потокового ответа: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Читает SSE-поток ответа, передавая фрагменты в onChunk.
+     * Причина завершения и расход токенов приходят в последних фрагментах.
+     */
+    private String readStream(Response response, GeminiKeyPool.ApiKey key, Consumer<String> onChunk)
+            throws IOException {
+        StringBuilder answer = new StringBuilder();
+        BufferedSource source = response.body().source();
+        GeminiResponse last = null;
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            // Формат SSE: строки "data: {json}", разделённые пустыми строками
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            GeminiResponse chunk = decode(new JsonReader(new StringReader(line.substring("data:".length()))));
+            if (!chunk.text().isEmpty()) {
+                answer.append(chunk.text());
+                onChunk.accept(chunk.text());
+            }
+            if (chunk.finishReason() != null || chunk.hasUsage()) {
+                last = chunk;
+            }
+        }
+
+        if (last != null) {
+            recordUsage(last, key);
+        }
+        if (answer.length() == 0) {
+            throw new IOException("Пустой потоковый ответ от Gemini"
+                    + (last != null && last.finishReason() != null ? ", finishReason=" + last.finishReason() : ""));
+        }
+        return answer.toString();
+    }
+
+    /**
+     * Ставит вызов в Dispatcher OkHttp и разбирает успешный ответ в потоке OkHttp
+     */
+    private <T> CompletableFuture<T> enqueue(Request request, GeminiKeyPool.ApiKey key,
+                                             ResponseHandler<T> handler) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = httpClient.newCall(request);
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    checkResponse(response);
+                    future.complete(handler.handle(response, key));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Ждёт результат future, разворачивая исходную IOException
+     */
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IOException("Запрос прерван", e);
+        } catch (ExecutionException | CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Обработчик успешного HTTP-ответа; key - ключ, которым выполнен запрос, для учёта токенов
+     */
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(Response response, GeminiKeyPool.ApiKey key) throws IOException;
+    }
+
+    /**
+     * Тело запроса: собирается один раз и переиспользуется во всех попытках
+     */
+    private RequestBody buildBody(String userMessage, Conversation conversation, Tier tier) {
+        return RequestBody.create(
+                gson.toJson(createRequestBody(userMessage, conversation, tiers.settings(tier))),
                 MediaType.parse("application/json; charset=utf-8")
         );
+    }
 
-        Request request = new Request.Builder()
+    /**
+     * Собирает HTTP-запрос к Gemini с ключом попытки
+     */
+    private static Request buildRequest(String url, RequestBody body, GeminiKeyPool.ApiKey key) {
+        return new Request.Builder()
                 .url(url)
                 .addHeader("Content-Type", "application/json")
-                .addHeader("x-goog-api-key", apiKey)
+                .addHeader("x-goog-api-key", key.value())
                 .post(body)
                 .build();
+    }
 
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                String errorBody = response.body() != null ? response.body().string() : "Unknown error";
-                throw new IOException("HTTP " + response.code() + ": " + errorBody);
-            }
+    /**
+     * Бросает IOException с телом ошибки, если ответ не 2xx
+     */
+    private void checkResponse(Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            String errorBody = response.body() != null ? response.body().string() : "Unknown error";
+            throw new GeminiApiException(response.code(), errorBody,
+                    parseRetryAfterMs(response.header("Retry-After"), errorBody));
+        }
+    }
 
-            return parseResponse(response.body().string());
+    /**
+     * Retry-After в секундах или HTTP-дате; иначе retryDelay из тела ошибки. -1, если задержки нет.
+     */
+    private static long parseRetryAfterMs(String header, String errorBody) {
+        if (header != null && !header.isBlank()) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(header.trim()));
+            } catch (NumberFormatException e) {
+                try {
+                    ZonedDateTime at = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                    return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+                } catch (Exception ignored) {
+                    // Некорректный заголовок - пробуем тело ошибки
+                }
+            }
         }
+        Matcher matcher = RETRY_DELAY.matcher(errorBody);
+        return matcher.find() ? TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1))) : -1;
     }
 
     /**
-     * Создаёт JSON-тело запроса для Gemini.
+     * Неуспешный HTTP-ответ Gemini API
      */
-    private JsonObject createRequestBody(String userMessage) {
-        JsonObject part = new JsonObject();
-        part.addProperty("text", userMessage);
+    public static class GeminiApiException extends IOException {
+        private static final long serialVersionUID = 1L;
 
-        JsonArray parts = new JsonArray();
-        parts.add(part);
+        private final int statusCode;
+        private final long retryAfterMs;
 
-        JsonObject content = new JsonObject();
-        content.add("parts", parts);
+        public GeminiApiException(int statusCode, String errorBody, long retryAfterMs) {
+            super("HTTP " + statusCode + ": " + errorBody);
+            this.statusCode = statusCode;
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        public int getStatusCode() { return statusCode; }
+        public long getRetryAfterMs() { return retryAfterMs; }
+    }
 
+    /**
+     * Создаёт JSON-тело запроса для Gemini.
+     * Реплики разговора идут в contents перед вопросом, краткое содержание старой части - в systemInstruction,
+     * параметры уровня задержки - в generationConfig.
+     */
+    private JsonObject createRequestBody(String userMessage, Conversation conversation, Settings settings) {
         JsonArray contents = new JsonArray();
-        contents.add(content);
+        for (Turn turn : conversation.turns()) {
+            contents.add(content(turn.fromUser() ? "user" : "model", turn.text()));
+        }
+        contents.add(content("user", userMessage));
 
         JsonObject requestBody = new JsonObject();
         requestBody.add("contents", contents);
 
+        if (!conversation.summary().isEmpty()) {
+            requestBody.add("systemInstruction",
+                    content(null, "Краткое содержание начала разговора:\n" + conversation.summary()));
+        }
+
+        JsonObject thinkingConfig = new JsonObject();
+        thinkingConfig.addProperty("thinkingBudget", settings.thinkingBudget());
+
+        JsonObject generationConfig = new JsonObject();
+        generationConfig.addProperty("temperature", settings.temperature());
+        generationConfig.addProperty("maxOutputTokens", settings.maxOutputTokens());
+        generationConfig.add("thinkingConfig", thinkingConfig);
+        requestBody.add("generationConfig", generationConfig);
         return requestBody;
     }
 
+    private static JsonObject content(String role, String text) {
+        JsonObject part = new JsonObject();
+        part.addProperty("text", text);
+
+        JsonArray parts = new JsonArray();
+        parts.add(part);
+
+        JsonObject content = new JsonObject();
+        if (role != null) {
+            content.addProperty("role", role);
+        }
+        content.add("parts", parts);
+        return content;
+    }
+
     /**
-     * Парсит ответ от Gemini API и возвращает содержимое первого фрагмента.
+     * Разбирает ответ generateContent прямо из тела ответа, без промежуточной строки и дерева JSON
      */
-    private String parseResponse(String responseBody) throws IOException {
-        try {
-            JsonObject json = gson.fromJson(responseBody, JsonObject.class);
-            JsonArray candidates = json.getAsJsonArray("candidates");
-
-            if (candidates != null && candidates.size() > 0) {
-                JsonObject first = candidates.get(0).getAsJsonObject();
-                JsonObject content = first.getAsJsonObject("content");
-                JsonArray parts = content.getAsJsonArray("parts");
+    private String readResponse(Response response, GeminiKeyPool.ApiKey key) throws IOException {
+        GeminiResponse decoded;
+        try (JsonReader reader = new JsonReader(response.body().charStream())) {
+            decoded = decode(reader);
+        }
+        recordUsage(decoded, key);
+        if (decoded.text().isEmpty()) {
+            throw new IOException("Ответ Gemini без текста, finishReason=" + decoded.finishReason());
+        }
+        if ("MAX_TOKENS".equals(decoded.finishReason())) {
+            logger.warn("✂️ Ответ Gemini обрезан по лимиту токенов ({} токенов)", decoded.outputTokens());
+        }
+        return decoded.text();
+    }
 
-                if (parts != null && parts.size() > 0) {
-                    return parts.get(0).getAsJsonObject().get("text").getAsString();
-                }
-            }
+    private static GeminiResponse decode(JsonReader reader) throws IOException {
+        try {
+            return GeminiResponse.read(reader);
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader сообщает о неожиданной структуре через IllegalStateException
+            throw new IOException("Неожиданный формат ответа Gemini: " + e.getMessage(), e);
+        }
+    }
 
-            throw new IOException("Неожиданный формат ответа: " + responseBody);
-        } catch (JsonSyntaxException e) {
-            throw new IOException("Ошибка парсинга JSON: " + e.getMessage(), e);
+    private void recordUsage(GeminiResponse response, GeminiKeyPool.ApiKey key) {
+        keyPool.recordTokens(key, response.totalTokens());
+        if (response.promptTokens() > 0) {
+            promptTokens.addAndGet(response.promptTokens());
+        }
+        if (response.outputTokens() > 0) {
+            outputTokens.addAndGet(response.outputTokens());
+        }
+        if (response.thoughtTokens() > 0) {
+            thoughtTokens.addAndGet(response.thoughtTokens());
+        }
+        if (response.finishReason() != null) {
+            finishReasons.computeIfAbsent(response.finishReason(), reason -> new AtomicLong()).incrementAndGet();
         }
     }
 
@@ -111,6 +686,6 @@ public class GoogleAiService {
      * Проверяет доступность Gemini API (здесь простой заглушечный вызов).
      */
     public boolean isApiAvailable() {
-        return apiKey != null && !apiKey.trim().isEmpty();
+        return !keyPool.isEmpty();
     }
 }
\ No newline at end of file
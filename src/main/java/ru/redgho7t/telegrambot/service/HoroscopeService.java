@@ -6,6 +6,7 @@ import okhttp3.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import ru.redgho7t.telegrambot.utils.MessageTemplate;
 
 import java.io.IOException;
 import java.time.LocalDate;
@@ -13,6 +14,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -24,8 +26,10 @@ public class HoroscopeService {
     private static final Logger logger = LoggerFactory.getLogger(HoroscopeService.class);
 
     private final OkHttpClient httpClient;
-    private final Map<String, String> horoscopeCache = new HashMap<>();
-    private String lastUpdateDate = "";
+    // Обновления обрабатываются параллельно, поэтому кэш потокобезопасный
+    private final Map<String, String> horoscopeCache = new ConcurrentHashMap<>();
+    private volatile String lastUpdateDate = "";
+    private volatile DisplayDate displayDate;
 
     // Знаки зодиака с переводом на русский (используем HashMap вместо Map.of())
     private static final Map<String, String> ZODIAC_SIGNS = createZodiacSigns();
@@ -47,6 +51,36 @@ public class HoroscopeService {
         return signs;
     }
 
+    // Заголовки знаков ("♈ Овен") и справка по знакам собраны один раз
+    private static final Map<String, String> SIGN_TITLES = createSignTitles();
+    private static final String ZODIAC_GUIDE = createZodiacGuide();
+    private static final MessageTemplate HOROSCOPE = MessageTemplate.compile("🔮 **Гороскоп для {}**\n\n{}\n\n📅 *{}*");
+    private static final DateTimeFormatter DISPLAY_DATE_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+
+    private static Map<String, String> createSignTitles() {
+        Map<String, String> titles = new HashMap<>();
+        for (String sign : ZODIAC_SIGNS.keySet()) {
+            titles.put(sign, getZodiacEmoji(sign) + " " + sign.substring(0, 1).toUpperCase() + sign.substring(1));
+        }
+        return Map.copyOf(titles);
+    }
+
+    private static String createZodiacGuide() {
+        StringBuilder guide = new StringBuilder();
+        guide.append("🔮 **Знаки зодиака:**\n\n");
+
+        for (String sign : ZODIAC_SIGNS.keySet()) {
+            String emoji = getZodiacEmoji(sign);
+            String capitalizedSign = sign.substring(0, 1).toUpperCase() + sign.substring(1);
+            guide.append(emoji).append(" **").append(capitalizedSign).append("**\n");
+        }
+
+        guide.append("\n📝 *Напишите название знака для получения гороскопа*");
+        guide.append("\n🎲 *Или используйте \"гороскоп\" для случайного гороскопа*");
+
+        return guide.toString();
+    }
+
     // Fallback гороскопы на случай недоступности API (используем HashMap)
     private static final Map<String, String> FALLBACK_HOROSCOPES = createFallbackHoroscopes();
 
@@ -109,7 +143,7 @@ public class HoroscopeService {
     /**
      * Обновляет все гороскопы
      */
-    public void updateAllHoroscopes() {
+    public synchronized void updateAllHoroscopes() {
         logger.info("Обновление всех гороскопов");
         String today = LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE);
 
@@ -134,7 +168,7 @@ public class HoroscopeService {
     /**
      * Проверяет и обновляет кэш при необходимости
      */
-    private void updateCacheIfNeeded() {
+    private synchronized void updateCacheIfNeeded() {
         String today = LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE);
 
         if (!today.equals(lastUpdateDate) || horoscopeCache.isEmpty()) {
@@ -172,18 +206,29 @@ public class HoroscopeService {
      * Форматирует гороскоп для отправки
      */
     private String formatHoroscope(String sign, String horoscope) {
-        String emoji = getZodiacEmoji(sign);
-        String capitalizedSign = sign.substring(0, 1).toUpperCase() + sign.substring(1);
-        String today = LocalDate.now().format(DateTimeFormatter.ofPattern("dd.MM.yyyy"));
+        return HOROSCOPE.render(SIGN_TITLES.get(sign), horoscope, today());
+    }
 
-        return String.format("🔮 **Гороскоп для %s %s**\n\n%s\n\n📅 *%s*",
-                emoji, capitalizedSign, horoscope, today);
+    /**
+     * Сегодняшняя дата для подписи; строка пересоздаётся только при смене дня
+     */
+    private String today() {
+        LocalDate now = LocalDate.now();
+        DisplayDate current = displayDate;
+        if (current == null || !current.date().equals(now)) {
+            current = new DisplayDate(now, now.format(DISPLAY_DATE_FORMAT));
+            displayDate = current;
+        }
+        return current.text();
+    }
+
+    private record DisplayDate(LocalDate date, String text) {
     }
 
     /**
      * Возвращает эмодзи для знака зодиака
      */
-    private String getZodiacEmoji(String sign) {
+    private static String getZodiacEmoji(String sign) {
         return switch (sign.toLowerCase()) {
             case "овен" -> "♈";
             case "телец" -> "♉";
@@ -205,19 +250,7 @@ public class HoroscopeService {
      * Возвращает справку по знакам зодиака
      */
     public String getZodiacGuide() {
-        StringBuilder guide = new StringBuilder();
-        guide.append("🔮 **Знаки зодиака:**\n\n");
-
-        for (String sign : ZODIAC_SIGNS.keySet()) {
-            String emoji = getZodiacEmoji(sign);
-            String capitalizedSign = sign.substring(0, 1).toUpperCase() + sign.substring(1);
-            guide.append(String.format("%s **%s**\n", emoji, capitalizedSign));
-        }
-
-        guide.append("\n📝 *Напишите название знака для получения гороскопа*");
-        guide.append("\n🎲 *Или используйте \"гороскоп\" для случайного гороскопа*");
-
-        return guide.toString();
+        return ZODIAC_GUIDE;
     }
 
     /**
@@ -0,0 +1,329 @@
+package ru.redgho7t.telegrambot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.redgho7t.telegrambot.entity.MessageLog.MessageType;
+import ru.redgho7t.telegrambot.utils.KeywordMatcher;
+import ru.redgho7t.telegrambot.utils.NaiveBayesClassifier;
+import ru.redgho7t.telegrambot.utils.NaiveBayesClassifier.Sample;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Локальный классификатор намерений перед обращением к Gemini.
+ * Короткие сообщения без ключевых слов (приветствия, благодарности, "ок", просьбы о шутке,
+ * погоде или гороскопе другими словами) распознаются наивным Байесом и обрабатываются без AI.
+ *
+ * Обучение - на истории message_logs: SPECIAL_KEYWORD размечаются по сработавшему ключевому слову,
+ * AI_REQUEST считаются вопросами. К ним добавляются встроенные примеры фраз.
+ * Каждая пятая запись (по хэшу текста) откладывается - но её метки получены теми же правилами,
+ * поэтому это лишь согласие с правилами разметки (weak_label_agreement), а не качество классификации.
+ * Точность и полнота считаются только по размеченной вручную выборке реальных сообщений
+ * (telegram.bot.intent-classifier.eval-file) из тех, что действительно доходят до классификатора:
+ * без ключевых слов и не длиннее max-words.
+ */
+@Service
+public class IntentClassifierService {
+    private static final Logger logger = LoggerFactory.getLogger(IntentClassifierService.class);
+    private static final int HELD_OUT_FOLDS = 5;
+    // Длиннее этого текст в обучение не берём: это уже развёрнутый вопрос
+    private static final int MAX_TRAINING_LENGTH = 300;
+
+    /**
+     * Классы намерений. QUESTION - всё, что должно уйти в AI
+     */
+    public enum Label {
+        GREETING, THANKS, ACK, JOKE, WEATHER, HOROSCOPE, QUESTION
+    }
+
+    // Встроенные примеры - в том числе формулировки без ключевых слов из MessageProcessor
+    private static final Map<Label, List<String>> SEED_PHRASES = Map.of(
+            Label.GREETING, List.of("привет", "приветик", "здравствуй", "здравствуйте", "добрый день",
+                    "доброе утро", "добрый вечер", "хай", "салют", "здарова", "приветствую", "hello", "hi",
+                    "hey", "йо", "ку", "доброй ночи", "привет всем"),
+            Label.THANKS, List.of("спасибо", "спасибо большое", "благодарю", "спс", "пасиб", "спасибки",
+                    "thanks", "thank you", "спасибо бро", "огромное спасибо", "мерси", "респект"),
+            Label.ACK, List.of("ок", "окей", "ok", "okay", "понятно", "ясно", "понял", "поняла", "хорошо",
+                    "ладно", "угу", "ага", "принято", "договорились", "норм", "круто", "отлично", "класс"),
+            Label.JOKE, List.of("насмеши меня", "расскажи что-нибудь смешное", "хочу посмеяться",
+                    "подними настроение", "давай поржём", "расскажи смешную историю", "развесели меня",
+                    "хочу поржать", "tell me something funny", "make me laugh"),
+            Label.WEATHER, List.of("что надеть сегодня", "брать ли зонт", "холодно на улице",
+                    "жарко сегодня", "сколько градусов", "какая погодка", "будут ли осадки",
+                    "нужна ли куртка", "как на улице", "сильный ветер сегодня"),
+            Label.HOROSCOPE, List.of("что меня ждёт по звёздам", "что говорят звёзды", "что мне сулят звёзды",
+                    "астропрогноз на сегодня", "расклад по звёздам", "что обещают звёзды",
+                    "мой прогноз по дате рождения", "натальная карта"),
+            Label.QUESTION, List.of("что такое рекурсия", "как работает интернет", "почему небо голубое",
+                    "объясни теорию относительности", "напиши функцию сортировки", "как приготовить борщ",
+                    "помоги с задачей", "переведи на английский", "сколько будет два плюс два",
+                    "кто написал войну и мир", "придумай название для проекта", "в чём смысл жизни",
+                    "как выучить английский", "что посмотреть вечером", "как дела", "расскажи про java",
+                    "расскажи о чёрных дырах", "расскажи историю рима", "подскажи хорошую книгу",
+                    "что лучше python или java", "как написать цикл", "где находится австралия",
+                    "когда была революция", "зачем нужен docker", "какой язык учить первым",
+                    "сравни два телефона", "исправь ошибку в коде", "сделай краткое содержание",
+                    "what is recursion", "how does it work", "кто ты")
+    );
+    private static final Map<String, Label> SEED_LABELS = new HashMap<>();
+
+    static {
+        SEED_PHRASES.forEach((label, phrases) -> phrases.forEach(phrase -> SEED_LABELS.put(normalize(phrase), label)));
+    }
+
+    private final DatabaseService databaseService;
+    private final boolean enabled;
+    private final double minConfidence;
+    private final double minCoverage;
+    private final int maxWords;
+    private final int trainingLimit;
+    private final Path evaluationFile;
+
+    private volatile Model model;
+
+    private final AtomicLongArray localAnswers = new AtomicLongArray(Label.values().length);
+    private final AtomicLong passedToAi = new AtomicLong();
+    private final AtomicLong lowConfidence = new AtomicLong();
+    private final AtomicLong tooLong = new AtomicLong();
+
+    /**
+     * Обученная модель, её согласие с правилами разметки и оценка на размеченной вручную выборке
+     */
+    private record Model(NaiveBayesClassifier<Label> classifier, Map<String, Object> weakLabelAgreement,
+                         Map<String, Object> evaluation, int historySamples, LocalDateTime trainedAt) {
+    }
+
+    @Autowired
+    public IntentClassifierService(DatabaseService databaseService,
+                                   @Value("${telegram.bot.intent-classifier.enabled:true}") boolean enabled,
+                                   @Value("${telegram.bot.intent-classifier.min-confidence:0.9}") double minConfidence,
+                                   @Value("${telegram.bot.intent-classifier.min-coverage:0.7}") double minCoverage,
+                                   @Value("${telegram.bot.intent-classifier.max-words:6}") int maxWords,
+                                   @Value("${telegram.bot.intent-classifier.training-limit:20000}") int trainingLimit,
+                                   @Value("${telegram.bot.intent-classifier.eval-file:}") String evaluationFile) {
+        this.databaseService = databaseService;
+        this.enabled = enabled;
+        this.minConfidence = minConfidence;
+        this.minCoverage = minCoverage;
+        this.maxWords = maxWords;
+        this.trainingLimit = trainingLimit;
+        this.evaluationFile = evaluationFile.isBlank() ? null : Path.of(evaluationFile);
+        // До первого обучения на истории работаем на встроенных примерах
+        this.model = train(List.of());
+        logger.info("✅ Классификатор намерений: {}, порог {}, до {} слов",
+                enabled ? "включён" : "выключен", minConfidence, maxWords);
+    }
+
+    /**
+     * Определяет намерение короткого сообщения
+     * @return класс, если сообщение можно обработать локально; null - сообщение нужно отправить в AI
+     */
+    public Label classify(String text) {
+        if (!enabled) {
+            return null;
+        }
+        if (wordCount(text) > maxWords) {
+            tooLong.incrementAndGet();
+            return null;
+        }
+
+        NaiveBayesClassifier.Prediction<Label> prediction = model.classifier().classify(text);
+        if (prediction.label() == Label.QUESTION) {
+            passedToAi.incrementAndGet();
+            return null;
+        }
+        if (prediction.probability() < minConfidence || prediction.coverage() < minCoverage) {
+            lowConfidence.incrementAndGet();
+            return null;
+        }
+        localAnswers.incrementAndGet(prediction.label().ordinal());
+        logger.debug("🧭 Намерение {} ({}) для: {}", prediction.label(), prediction.probability(), text);
+        return prediction.label();
+    }
+
+    /**
+     * Переобучение на свежей истории сообщений
+     */
+    @Scheduled(fixedDelayString = "${telegram.bot.intent-classifier.retrain-interval-ms:21600000}",
+            initialDelayString = "${telegram.bot.intent-classifier.initial-delay-ms:60000}")
+    public void retrain() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<Object[]> rows = databaseService.getUserMessages(
+                    List.of(MessageType.SPECIAL_KEYWORD, MessageType.AI_REQUEST), trainingLimit);
+            Model trained = train(rows);
+            model = trained;
+            logger.info("🧭 Классификатор намерений обучен: {} записей истории, точность на размеченной выборке {}",
+                    trained.historySamples(), trained.evaluation() != null ? trained.evaluation().get("accuracy") : "-");
+        } catch (Exception e) {
+            logger.error("❌ Ошибка обучения классификатора намерений: {}", e.getMessage(), e);
+        }
+    }
+
+    private Model train(List<Object[]> rows) {
+        List<Sample<Label>> training = new ArrayList<>();
+        List<Sample<Label>> heldOut = new ArrayList<>();
+        SEED_PHRASES.forEach((label, phrases) -> phrases.forEach(phrase -> training.add(new Sample<>(phrase, label))));
+
+        int history = 0;
+        for (Object[] row : rows) {
+            String text = (String) row[0];
+            Label label = labelOf(text, (MessageType) row[1]);
+            if (label == null) {
+                continue;
+            }
+            Sample<Label> sample = new Sample<>(text, label);
+            String normalized = normalize(text);
+            // Одинаковые тексты всегда попадают в одну часть - без утечки в отложенную выборку.
+            // Встроенные примеры всегда в обучении, поэтому совпадающие с ними тексты не откладываем
+            if (!SEED_LABELS.containsKey(normalized) && Math.floorMod(normalized.hashCode(), HELD_OUT_FOLDS) == 0) {
+                heldOut.add(sample);
+            } else {
+                training.add(sample);
+            }
+            history++;
+        }
+
+        NaiveBayesClassifier<Label> classifier = NaiveBayesClassifier.train(Label.class, training);
+        List<Sample<Label>> labelled = loadEvaluationSamples();
+        return new Model(classifier, classifier.evaluate(heldOut),
+                labelled.isEmpty() ? null : classifier.evaluate(labelled), history, LocalDateTime.now());
+    }
+
+    /**
+     * Размеченная вручную выборка: строки "МЕТКА<TAB>текст", # - комментарий.
+     * Оставляются только сообщения, которые в работе доходят до классификатора
+     */
+    private List<Sample<Label>> loadEvaluationSamples() {
+        List<Sample<Label>> samples = new ArrayList<>();
+        if (evaluationFile == null || !Files.exists(evaluationFile)) {
+            return samples;
+        }
+        try {
+            for (String line : Files.readAllLines(evaluationFile, StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                if (line.isBlank() || line.startsWith("#") || tab < 0) {
+                    continue;
+                }
+                String text = line.substring(tab + 1).trim();
+                if (text.isEmpty() || wordCount(text) > maxWords || MessageProcessor.matchKeyword(text) != null) {
+                    continue;
+                }
+                try {
+                    Label label = Label.valueOf(line.substring(0, tab).trim().toUpperCase(Locale.ROOT));
+                    samples.add(new Sample<>(text, label));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("⚠️ Неизвестная метка в {}: {}", evaluationFile, line);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("❌ Не удалось прочитать размеченную выборку {}: {}", evaluationFile, e.getMessage());
+        }
+        return samples;
+    }
+
+    /**
+     * Разметка записи истории: ключевое слово определяет функцию, запрос к AI - вопрос,
+     * кроме фраз, совпадающих со встроенными примерами (например, "привет", ушедший в AI)
+     */
+    private static Label labelOf(String text, MessageType type) {
+        if (text == null || text.isBlank() || text.length() > MAX_TRAINING_LENGTH || text.startsWith("/")) {
+            return null;
+        }
+        if (type == MessageType.SPECIAL_KEYWORD) {
+            KeywordMatcher.Match match = MessageProcessor.matchKeyword(text);
+            if (match == null) {
+                return null;
+            }
+            return switch (match.trigger()) {
+                case JOKE -> Label.JOKE;
+                case WEATHER -> Label.WEATHER;
+                case HOROSCOPE_MENU, ZODIAC_SIGN -> Label.HOROSCOPE;
+                default -> null;
+            };
+        }
+        return SEED_LABELS.getOrDefault(normalize(text), Label.QUESTION);
+    }
+
+    private static String normalize(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                if (space && result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append(c == 'ё' ? 'е' : c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return result.toString();
+    }
+
+    private static int wordCount(String text) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean whitespace = Character.isWhitespace(text.charAt(i));
+            if (!whitespace && !inWord) {
+                words++;
+            }
+            inWord = !whitespace;
+        }
+        return words;
+    }
+
+    /**
+     * Метрики: размер выборки, согласие с правилами разметки, точность и полнота на размеченной
+     * вручную выборке (null, если её нет), решения маршрутизации
+     */
+    public Map<String, Object> getMetrics() {
+        Model current = model;
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("min_confidence", minConfidence);
+        metrics.put("min_coverage", minCoverage);
+        metrics.put("trained_at", current.trainedAt().toString());
+        metrics.put("training_samples", current.classifier().getSamples());
+        metrics.put("history_samples", current.historySamples());
+        metrics.put("weak_label_agreement", current.weakLabelAgreement());
+        metrics.put("evaluation", current.evaluation());
+
+        Map<String, Object> local = new LinkedHashMap<>();
+        long localTotal = 0;
+        for (Label label : Label.values()) {
+            if (label != Label.QUESTION) {
+                long count = localAnswers.get(label.ordinal());
+                local.put(label.name().toLowerCase(Locale.ROOT), count);
+                localTotal += count;
+            }
+        }
+        metrics.put("local_answers", localTotal);
+        metrics.put("local_by_intent", local);
+        metrics.put("passed_to_ai", passedToAi.get());
+        metrics.put("low_confidence", lowConfidence.get());
+        metrics.put("too_long", tooLong.get());
+        return metrics;
+    }
+}
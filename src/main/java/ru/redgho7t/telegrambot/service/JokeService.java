@@ -28,7 +28,7 @@ public class JokeService {
 
     private final OkHttpClient httpClient;
     private final List<String> jokesCache;
-    private long lastUpdateTime = 0;
+    private volatile long lastUpdateTime = 0;
     private static final long CACHE_DURATION = 6 * 60 * 60 * 1000; // 6 часов
 
     // Fallback анекдоты на случай недоступности API
@@ -58,15 +58,18 @@ public class JokeService {
         // Проверяем кэш и обновляем при необходимости
         refreshCacheIfNeeded();
 
-        // Если кэш пуст, используем fallback
-        if (jokesCache.isEmpty()) {
-            logger.warn("Кэш анекдотов пуст, используем fallback");
-            return getRandomFallbackJoke();
-        }
+        // Возвращаем случайный анекдот из кэша (кэш может обновляться параллельно)
+        String joke;
+        synchronized (jokesCache) {
+            // Если кэш пуст, используем fallback
+            if (jokesCache.isEmpty()) {
+                logger.warn("Кэш анекдотов пуст, используем fallback");
+                return getRandomFallbackJoke();
+            }
 
-        // Возвращаем случайный анекдот из кэша
-        Random random = new Random();
-        String joke = jokesCache.get(random.nextInt(jokesCache.size()));
+            Random random = new Random();
+            joke = jokesCache.get(random.nextInt(jokesCache.size()));
+        }
 
         logger.debug("Возвращен анекдот длиной {} символов", joke.length());
         return joke;
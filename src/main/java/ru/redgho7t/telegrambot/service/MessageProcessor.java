@@ -3,16 +3,34 @@ package ru.redgho7t.telegrambot.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.MessageEntity;
 import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import ru.redgho7t.telegrambot.entity.MessageLog.MessageType;
+import ru.redgho7t.telegrambot.service.GenerationTiers.Tier;
+import ru.redgho7t.telegrambot.utils.CallbackHandler;
+import ru.redgho7t.telegrambot.utils.CommandHandler;
+import ru.redgho7t.telegrambot.utils.HandlerRegistry;
+import ru.redgho7t.telegrambot.utils.KeyboardFactory;
+import ru.redgho7t.telegrambot.utils.KeywordMatcher;
+import ru.redgho7t.telegrambot.utils.KeywordMatcher.Trigger;
 import ru.redgho7t.telegrambot.utils.ResponseTemplates;
+import ru.redgho7t.telegrambot.utils.TriggerPrefilter;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.invoke.MethodHandles;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Сервис для обработки сообщений от пользователей.
@@ -21,9 +39,12 @@ import java.util.List;
 @Service
 public class MessageProcessor {
     private static final Logger logger = LoggerFactory.getLogger(MessageProcessor.class);
+    private static final String AI_ERROR_MESSAGE = "❌ Ошибка при обращении к AI. Попробуйте позже.";
+    private static final String ZODIAC_MENU_MESSAGE = "🔮 **Выберите ваш знак зодиака:**\n\n" +
+            "Нажмите на кнопку с вашим знаком, чтобы получить персональный гороскоп на сегодня.";
 
     private final ResponseTemplates responseTemplates;
-    private final Map<String, String> keywordTemplates;
+    private final PromptTemplateEngine promptTemplateEngine;
     private final GoogleAiService googleAiService;
 
     // ИСПРАВЛЕНО: Инъекция через конструктор вместо @Autowired полей
@@ -31,50 +52,39 @@ public class MessageProcessor {
     private final WeatherService weatherService;
     private final HoroscopeService horoscopeService;
     private final RouletteService rouletteService;
-
-    // Ключевые слова для разных реакций (в нижнем регистре)
-    private static final List<String> BOT_TRIGGER_WORDS = Arrays.asList(
-            "бот", "ботяра", "bot", "botyara", "botik", "chlenix", "bobi", "botniy"
+    private final IntentClassifierService intentClassifier;
+    private final AiRequestCollapser aiRequestCollapser;
+    private final ConversationContextStore conversationContext;
+    private final GenerationTiers generationTiers;
+    private final boolean aiStreaming;
+    private final HandlerRegistry<ProcessingResult> handlers;
+
+    // Ключевые слова для разных реакций (в нижнем регистре), компилируются один раз
+    private static final Map<Trigger, String[]> TRIGGER_WORDS = Map.of(
+            Trigger.BOT, new String[]{"бот", "ботяра", "bot", "botyara", "botik", "chlenix", "bobi", "botniy"},
+            Trigger.POPI, new String[]{"попи", "popi", "пупстерс", "попикс", "попа"},
+            Trigger.JAVA, new String[]{"java", "jabi"},
+            Trigger.GO, new String[]{"go", "го", "гоу"},
+            Trigger.JABI, new String[]{"jabi", "жаби", "jabbi"},
+            // НОВЫЕ КЛЮЧЕВЫЕ СЛОВА для дополнительных функций
+            Trigger.JOKE, new String[]{"анекдот", "шутка", "прикол", "joke", "юмор", "смешное", "рассмеши"},
+            Trigger.WEATHER, new String[]{"погода", "weather", "прогноз", "температура", "дождь", "снег", "солнце"},
+            // ИЗМЕНЕНО: Разделил гороскопы на общие слова и конкретные знаки
+            Trigger.HOROSCOPE_MENU, new String[]{"гороскоп", "horoscope", "предсказание", "зодиак", "знак", "астрология"},
+            Trigger.ZODIAC_SIGN, new String[]{"овен", "телец", "близнецы", "рак", "лев", "дева", "весы",
+                    "скорпион", "стрелец", "козерог", "водолей", "рыбы"},
+            Trigger.ROULETTE, new String[]{"lucky", "рулетка", "удача", "везение", "лотерея", "случайное", "число", "фортуна"}
     );
+    private static final KeywordMatcher KEYWORD_MATCHER = new KeywordMatcher(TRIGGER_WORDS);
+    // Отсев сообщений в группах, которые не касаются бота, до полного разбора
+    private static final TriggerPrefilter GROUP_PREFILTER = new TriggerPrefilter(TRIGGER_WORDS.values().stream()
+            .flatMap(Arrays::stream).toList());
 
-    private static final List<String> POPI_TRIGGER_WORDS = Arrays.asList(
-            "попи", "popi", "пупстерс", "попикс", "попа"
-    );
-
-    private static final List<String> JAVA_TRIGGER_WORDS = Arrays.asList(
-            "java", "jabi"
-    );
-
-    private static final List<String> GO_TRIGGER_WORDS = Arrays.asList(
-            "go", "го", "гоу"
-    );
-
-    private static final List<String> JABI_TRIGGER_WORDS = Arrays.asList(
-            "jabi", "JABI", "жаби", "jabbi", "JABA", "ЖАБИ"
-    );
-
-    // НОВЫЕ КЛЮЧЕВЫЕ СЛОВА для дополнительных функций
-    private static final List<String> JOKE_TRIGGER_WORDS = Arrays.asList(
-            "анекдот", "шутка", "прикол", "joke", "юмор", "смешное", "рассмеши"
-    );
-
-    private static final List<String> WEATHER_TRIGGER_WORDS = Arrays.asList(
-            "погода", "weather", "прогноз", "температура", "дождь", "снег", "солнце"
-    );
-
-    // ИЗМЕНЕНО: Разделил гороскопы на общие слова и конкретные знаки
-    private static final List<String> HOROSCOPE_GENERAL_WORDS = Arrays.asList(
-            "гороскоп", "horoscope", "предсказание", "зодиак", "знак", "астрология"
-    );
-
-    private static final List<String> ZODIAC_SIGNS = Arrays.asList(
-            "овен", "телец", "близнецы", "рак", "лев", "дева", "весы",
-            "скорпион", "стрелец", "козерог", "водолей", "рыбы"
-    );
-
-    private static final List<String> ROULETTE_TRIGGER_WORDS = Arrays.asList(
-            "lucky", "рулетка", "удача", "везение", "лотерея", "случайное", "число", "фортуна"
-    );
+    private final String botMention;
+    private final AtomicLong groupMessages = new AtomicLong();
+    private final AtomicLong groupRejected = new AtomicLong();
+    private final AtomicLong groupPrefilterPassed = new AtomicLong();
+    private final AtomicLong groupFalsePositives = new AtomicLong();
 
     /**
      * ИСПРАВЛЕННЫЙ КОНСТРУКТОР с инъекцией всех сервисов
@@ -84,40 +94,34 @@ public class MessageProcessor {
                             JokeService jokeService,
                             WeatherService weatherService,
                             HoroscopeService horoscopeService,
-                            RouletteService rouletteService) {
+                            RouletteService rouletteService,
+                            PromptTemplateEngine promptTemplateEngine,
+                            ResponseTemplates responseTemplates,
+                            IntentClassifierService intentClassifier,
+                            AiRequestCollapser aiRequestCollapser,
+                            ConversationContextStore conversationContext,
+                            GenerationTiers generationTiers,
+                            @Value("${telegram.bot.ai-streaming:true}") boolean aiStreaming,
+                            @Value("${telegram.bot.username:}") String botUsername) {
         this.googleAiService = googleAiService;
         this.jokeService = jokeService;
         this.weatherService = weatherService;
         this.horoscopeService = horoscopeService;
         this.rouletteService = rouletteService;
+        this.promptTemplateEngine = promptTemplateEngine;
+        this.intentClassifier = intentClassifier;
+        this.aiRequestCollapser = aiRequestCollapser;
+        this.conversationContext = conversationContext;
+        this.generationTiers = generationTiers;
+        this.aiStreaming = aiStreaming;
+        this.botMention = botUsername.isBlank() ? null : "@" + botUsername;
 
-        this.responseTemplates = new ResponseTemplates();
-        this.keywordTemplates = initializeKeywordTemplates();
+        this.responseTemplates = responseTemplates;
+        this.handlers = HandlerRegistry.scan(this, MethodHandles.lookup(), ProcessingResult.class);
 
         logger.info("✅ MessageProcessor инициализирован со всеми сервисами + меню зодиака");
     }
 
-    private Map<String, String> initializeKeywordTemplates() {
-        Map<String, String> templates = new HashMap<>();
-        templates.put("привет", "Привет! Меня зовут AI Bot. Расскажи мне: ");
-        templates.put("hello", "Hello! I'm AI Bot. Tell me: ");
-        templates.put("помощь", "Как я могу помочь с вопросом: ");
-        templates.put("help", "How can I help you with: ");
-        templates.put("найди", "Найти информацию о: ");
-        templates.put("search", "Search for information about: ");
-        templates.put("что такое", "Что такое ");
-        templates.put("what is", "What is ");
-        templates.put("объясни", "Объясни ");
-        templates.put("explain", "Explain ");
-        templates.put("расскажи", "Расскажи о ");
-        templates.put("tell me", "Tell me about ");
-        templates.put("сравни", "Сравни ");
-        templates.put("compare", "Compare ");
-        templates.put("разница", "В чем разница между ");
-        templates.put("difference", "What's the difference between ");
-        return templates;
-    }
-
     /**
      * Обрабатывает входящее обновление (сообщение или callback).
      */
@@ -126,13 +130,14 @@ public class MessageProcessor {
             if (update.hasMessage()) {
                 return processMessage(update.getMessage());
             } else if (update.hasCallbackQuery()) {
-                return processCallbackQuery(update.getCallbackQuery());
+                return processCallbackQuery(update.getCallbackQuery()).withIntent(Intent.CALLBACK, null);
             }
 
             return new ProcessingResult("", false);
         } catch (Exception e) {
             logger.error("Ошибка при обработке обновления: {}", e.getMessage(), e);
-            return new ProcessingResult("❌ Произошла ошибка при обработке сообщения.", true);
+            return new ProcessingResult("❌ Произошла ошибка при обработке сообщения.", true)
+                    .withIntent(Intent.ERROR, null);
         }
     }
 
@@ -142,212 +147,346 @@ public class MessageProcessor {
             return new ProcessingResult("", false);
         }
 
-        Long chatId = message.getChatId();
-        String userName = getUserName(message);
         boolean isGroup = message.getChat().isGroupChat() || message.getChat().isSuperGroupChat();
 
+        // 0. Группы: сообщение без обращения к боту и без слов-триггеров отбрасываем сразу
+        boolean addressed = !isGroup || isMessageForBot(message);
+        if (isGroup) {
+            groupMessages.incrementAndGet();
+            if (!addressed && !messageText.startsWith("/") && !GROUP_PREFILTER.mayContainTrigger(messageText)) {
+                groupRejected.incrementAndGet();
+                return new ProcessingResult("", false);
+            }
+        }
+
+        String userName = getUserName(message);
         logger.info("Получено сообщение от {}: {}", userName, messageText);
 
         // 1. Проверяем команды первыми
         if (messageText.startsWith("/")) {
-            return processCommand(messageText, chatId, isGroup);
+            ProcessingResult command = processCommand(messageText, isGroup);
+            if (command.getAiQuestion() != null) {
+                // Команда вроде /ask: вопрос идёт в AI на уровне DEEP
+                return requestAi(message, userName, command.getAiQuestion(), Tier.DEEP);
+            }
+            return command.withIntent(Intent.COMMAND, null);
         }
 
-        // 2. НОВАЯ ЛОГИКА: Проверяем специальные функции ПЕРЕД существующими ключевыми словами
-        ProcessingResult newFunctionResult = checkNewFunctions(messageText);
-        if (newFunctionResult != null) {
-            return newFunctionResult;
+        // 2-3. Ключевые слова: функции имеют приоритет над специальными реакциями (см. KeywordMatcher)
+        KeywordMatcher.Match keyword = KEYWORD_MATCHER.match(messageText);
+        if (!addressed) {
+            groupPrefilterPassed.incrementAndGet();
+            if (keyword == null) {
+                groupFalsePositives.incrementAndGet();
+            }
         }
-
-        // 3. Проверяем существующие специальные ключевые слова
-        ProcessingResult specialResponse = checkSpecialKeywords(messageText);
-        if (specialResponse != null) {
-            return specialResponse;
+        if (keyword != null) {
+            return processKeyword(keyword).withIntent(Intent.KEYWORD, keyword.trigger());
         }
 
         // 4. Для групп проверяем, обращаются ли к боту
-        if (isGroup && !isMessageForBot(message)) {
+        if (!addressed) {
             return new ProcessingResult("", false);
         }
 
-        // 5. AI-ассистент как fallback
-        return processUserMessage(messageText, userName);
+        // 5. Короткие сообщения, распознанные локальным классификатором, обходятся без AI
+        ProcessingResult local = processLocalIntent(messageText);
+        if (local != null) {
+            return local;
+        }
+
+        // 6. AI-ассистент как fallback
+        return requestAi(message, userName, messageText, generationTiers.select(messageText, isGroup));
+    }
+
+    /**
+     * Запрос к AI: пока в чате генерируется ответ, сообщение ждёт общего запроса (см. AiRequestCollapser)
+     */
+    private ProcessingResult requestAi(Message message, String userName, String text, Tier tier) {
+        AiRequestCollapser.Turn turn = new AiRequestCollapser.Turn(message.getFrom().getId(), userName, text);
+        long slot = aiRequestCollapser.acquireOrQueue(message.getChatId(), turn);
+        if (slot == AiRequestCollapser.NOT_ACQUIRED) {
+            logger.info("⏳ Запрос к AI в чате {} уже выполняется, сообщение объединится со следующим",
+                    message.getChatId());
+            return new ProcessingResult("", false).withIntent(Intent.AI_REQUEST, null);
+        }
+        return processUserMessage(message.getChatId(), text, userName, tier).withAiSlot(slot);
+    }
+
+    /**
+     * Завершает запрос к AI в чате (вызывать после доставки ответа)
+     * @param aiSlot {@link ProcessingResult#getAiSlot()} доставленного результата
+     * @return запрос по сообщениям, накопившимся за время ответа, или null, если их нет
+     */
+    public FollowUp completeAiRequest(Long chatId, boolean isGroup, long aiSlot) {
+        AiRequestCollapser.Handoff handoff = aiRequestCollapser.release(chatId, aiSlot);
+        List<AiRequestCollapser.Turn> turns = handoff.turns();
+        if (turns.isEmpty()) {
+            return null;
+        }
+        AiRequestCollapser.Turn last = turns.get(turns.size() - 1);
+        String merged = AiRequestCollapser.merge(turns, isGroup);
+        logger.info("📨 Объединено {} сообщений в один запрос к AI для чата {}", turns.size(), chatId);
+        Tier tier = generationTiers.select(merged, isGroup);
+        return new FollowUp(last.userId(), last.userName(), merged,
+                processUserMessage(chatId, merged, last.userName(), tier).withAiSlot(handoff.owner()));
+    }
+
+    /**
+     * Объединённый запрос: текст для лога, автор последнего сообщения и результат обработки
+     */
+    public record FollowUp(Long userId, String userName, String text, ProcessingResult result) {
     }
 
     /**
-     * ОБНОВЛЕННЫЙ МЕТОД: Проверяет новые функции с интерактивным меню гороскопов
+     * Поиск ключевого слова; используется и для разметки истории сообщений
      */
-    private ProcessingResult checkNewFunctions(String messageText) {
-        String[] tokens = messageText.toLowerCase().split("[^\\p{L}]+");
+    static KeywordMatcher.Match matchKeyword(CharSequence text) {
+        return KEYWORD_MATCHER.match(text);
+    }
 
-        for (String token : tokens) {
-            // 1. АНЕКДОТЫ (приоритет 1)
-            if (JOKE_TRIGGER_WORDS.contains(token)) {
+    /**
+     * Ответ на намерение, распознанное классификатором
+     * @return результат или null, если сообщение нужно отправить в AI
+     */
+    private ProcessingResult processLocalIntent(String messageText) {
+        IntentClassifierService.Label label = intentClassifier.classify(messageText);
+        if (label == null) {
+            return null;
+        }
+        return switch (label) {
+            case GREETING -> new ProcessingResult(responseTemplates.getGreetingMessage(), true, false)
+                    .withIntent(Intent.KEYWORD, null);
+            case THANKS -> new ProcessingResult(responseTemplates.getThanksMessage(), true, false)
+                    .withIntent(Intent.KEYWORD, null);
+            case ACK -> new ProcessingResult(responseTemplates.getAckMessage(), true, false)
+                    .withIntent(Intent.KEYWORD, null);
+            case JOKE -> localKeyword(Trigger.JOKE, messageText);
+            case WEATHER -> localKeyword(Trigger.WEATHER, messageText);
+            case HOROSCOPE -> localKeyword(Trigger.HOROSCOPE_MENU, messageText);
+            case QUESTION -> null;
+        };
+    }
+
+    private ProcessingResult localKeyword(Trigger trigger, String messageText) {
+        return processKeyword(new KeywordMatcher.Match(trigger, messageText)).withIntent(Intent.KEYWORD, trigger);
+    }
+
+    /**
+     * Формирует ответ на найденное ключевое слово
+     */
+    private ProcessingResult processKeyword(KeywordMatcher.Match keyword) {
+        String token = keyword.word();
+
+        return switch (keyword.trigger()) {
+            // 1. АНЕКДОТЫ
+            case JOKE -> {
                 logger.info("🎭 Запрос анекдота: {}", token);
                 try {
                     String joke = jokeService.getRandomJoke();
                     String response = responseTemplates.getJokeIntroMessage() + joke;
-                    return new ProcessingResult(response, true, false);
+                    yield new ProcessingResult(response, true, false);
                 } catch (Exception e) {
                     logger.error("❌ Ошибка при получении анекдота: {}", e.getMessage());
-                    return new ProcessingResult(responseTemplates.getJokeErrorMessage(), true, false);
+                    yield new ProcessingResult(responseTemplates.getJokeErrorMessage(), true, false);
                 }
             }
 
-            // 2. РУЛЕТКА (приоритет 2)
-            if (ROULETTE_TRIGGER_WORDS.contains(token)) {
+            // 2. РУЛЕТКА
+            case ROULETTE -> {
                 logger.info("🎰 Запрос рулетки: {}", token);
                 try {
                     RouletteService.RouletteResult result = rouletteService.spin();
                     String response = rouletteService.formatResult(result);
                     // Указываем специальный флаг для анимации
-                    return new ProcessingResult(response, true, false, true);
+                    yield new ProcessingResult(response, true, false, true);
                 } catch (Exception e) {
                     logger.error("❌ Ошибка при работе рулетки: {}", e.getMessage());
-                    return new ProcessingResult("❌ Рулетка временно не работает. Попробуйте позже!", true, false);
+                    yield new ProcessingResult("❌ Рулетка временно не работает. Попробуйте позже!", true, false);
                 }
             }
 
-            // 3. ПОГОДА (приоритет 3)
-            if (WEATHER_TRIGGER_WORDS.contains(token)) {
+            // 3. ПОГОДА
+            case WEATHER -> {
                 logger.info("🌤️ Запрос погоды: {}", token);
                 try {
                     String weather = weatherService.getWeather();
-                    return new ProcessingResult(weather, true, false);
+                    yield new ProcessingResult(weather, true, false);
                 } catch (Exception e) {
                     logger.error("❌ Ошибка при получении погоды: {}", e.getMessage());
-                    return new ProcessingResult(responseTemplates.getWeatherErrorMessage(), true, false);
+                    yield new ProcessingResult(responseTemplates.getWeatherErrorMessage(), true, false);
                 }
             }
 
-            // 4. ГОРОСКОПЫ (приоритет 4) - НОВАЯ ЛОГИКА
             // 4a. Конкретный знак зодиака → сразу показать гороскоп
-            if (ZODIAC_SIGNS.contains(token)) {
+            case ZODIAC_SIGN -> {
                 logger.info("🔮 Запрос гороскопа для знака: {}", token);
                 try {
                     String horoscope = horoscopeService.getHoroscope(token);
-                    return new ProcessingResult(horoscope, true, false);
+                    yield new ProcessingResult(horoscope, true, false);
                 } catch (Exception e) {
                     logger.error("❌ Ошибка при получении гороскопа: {}", e.getMessage());
-                    return new ProcessingResult("❌ Гороскоп временно недоступен. Попробуйте позже!", true, false);
+                    yield new ProcessingResult("❌ Гороскоп временно недоступен. Попробуйте позже!", true, false);
                 }
             }
 
             // 4b. Общее слово "гороскоп" → показать меню выбора
-            if (HOROSCOPE_GENERAL_WORDS.contains(token)) {
+            case HOROSCOPE_MENU -> {
                 logger.info("🔮 Запрос общего гороскопа: показать меню выбора");
-                String menuMessage = "🔮 **Выберите ваш знак зодиака:**\n\n" +
-                        "Нажмите на кнопку с вашим знаком, чтобы получить персональный гороскоп на сегодня.";
-                return new ProcessingResult(menuMessage, true, false, false, true); // Новый флаг для меню зодиака
+                yield new ProcessingResult(ZODIAC_MENU_MESSAGE, true, false, false, true); // Новый флаг для меню зодиака
+            }
+
+            // Специальные реакции
+            case BOT -> new ProcessingResult(responseTemplates.getBotResponseMessage(), true, false);
+            case POPI -> new ProcessingResult(responseTemplates.getPopiMessage(), true, false);
+            case JABI -> {
+                logger.info("Обнаружено ключевое слово JABI: {}", token);
+                yield new ProcessingResult(responseTemplates.getJabiMessage(), true, false);
             }
+            case JAVA -> new ProcessingResult(responseTemplates.getJavaMessage(), true, false);
+            case GO -> new ProcessingResult(responseTemplates.getGoMessage(), true, false);
+        };
+    }
+
+    private ProcessingResult processCommand(String command, boolean isGroup) {
+        ProcessingResult result = handlers.dispatchCommand(command);
+        if (result != null) {
+            return result;
         }
+        if (isGroup) {
+            return new ProcessingResult("", false);
+        }
+        return new ProcessingResult(
+                "❓ Неизвестная команда. Используйте /help для просмотра доступных команд.", true, false
+        );
+    }
 
-        return null; // Новые функции не обнаружены
+    // ========== ОБРАБОТЧИКИ КОМАНД И КНОПОК (регистрируются в HandlerRegistry) ==========
+
+    @CommandHandler("/start")
+    private ProcessingResult startCommand() {
+        return new ProcessingResult(responseTemplates.getMainMenuMessage(), true, false)
+                .withKeyboard(KeyboardFactory.getMainMenuKeyboard());
     }
 
-    /**
-     * Проверяет специальные ключевые слова и возвращает соответствующий ответ
-     */
-    private ProcessingResult checkSpecialKeywords(String messageText) {
-        // Разбиваем на слова: все подряд non-letters как разделители
-        String[] tokens = messageText.toLowerCase().split("[^\\p{L}]+");
-
-        for (String token : tokens) {
-            // обращение к боту
-            if (BOT_TRIGGER_WORDS.contains(token)) {
-                return new ProcessingResult(responseTemplates.getBotResponseMessage(), true, false);
-            }
+    @CommandHandler("/help")
+    @CallbackHandler("cmd_help")
+    private ProcessingResult helpCommand() {
+        return new ProcessingResult(responseTemplates.getHelpMessage(), true, false);
+    }
 
-            // попи
-            if (POPI_TRIGGER_WORDS.contains(token)) {
-                return new ProcessingResult(responseTemplates.getPopiMessage(), true, false);
-            }
+    @CommandHandler("/about")
+    @CallbackHandler("cmd_about")
+    private ProcessingResult aboutCommand() {
+        return new ProcessingResult(responseTemplates.getAboutMessage(), true, false);
+    }
 
-            for (String trigger : JABI_TRIGGER_WORDS) {
-                if (Arrays.asList(tokens).contains(trigger)) {
-                    logger.info("Обнаружено ключевое слово JABI: {}", trigger);
-                    return new ProcessingResult(responseTemplates.getJabiMessage(), true, false);
-                }
-            }
+    @CommandHandler("/models")
+    @CallbackHandler("cmd_models")
+    private ProcessingResult modelsCommand() {
+        return new ProcessingResult(responseTemplates.getModelsMessage(), true, false);
+    }
 
-            // Java
-            if (JAVA_TRIGGER_WORDS.contains(token)) {
-                return new ProcessingResult(responseTemplates.getJavaMessage(), true, false);
-            }
+    // ИСПРАВЛЕННЫЕ НОВЫЕ КОМАНДЫ
+    @CommandHandler({"/joke", "/анекдот"})
+    private ProcessingResult jokeCommand() {
+        try {
+            String joke = jokeService.getRandomJoke();
+            return new ProcessingResult(responseTemplates.getJokeIntroMessage() + joke, true, false);
+        } catch (Exception e) {
+            logger.error("❌ Ошибка команды /joke: {}", e.getMessage());
+            return new ProcessingResult(responseTemplates.getJokeErrorMessage(), true, false);
+        }
+    }
 
-            // Go
-            if (GO_TRIGGER_WORDS.contains(token)) {
-                return new ProcessingResult(responseTemplates.getGoMessage(), true, false);
-            }
+    @CommandHandler({"/weather", "/погода"})
+    private ProcessingResult weatherCommand() {
+        try {
+            String weather = weatherService.getWeather();
+            return new ProcessingResult(weather, true, false);
+        } catch (Exception e) {
+            logger.error("❌ Ошибка команды /weather: {}", e.getMessage());
+            return new ProcessingResult(responseTemplates.getWeatherErrorMessage(), true, false);
         }
-        return null;
     }
 
-    private ProcessingResult processCommand(String command, Long chatId, boolean isGroup) {
-        // Убираем аргументы
-        String cmdPart = command.toLowerCase().split("\\s+")[0];
-        // Обрезаем суффикс вида @botusername
-        String cmd = cmdPart.contains("@") ? cmdPart.substring(0, cmdPart.indexOf("@")) : cmdPart;
+    // ИЗМЕНЕНО: /horoscope теперь тоже показывает меню
+    @CommandHandler({"/horoscope", "/гороскоп"})
+    private ProcessingResult horoscopeCommand() {
+        logger.info("🔮 Команда гороскопа: показать меню выбора");
+        return new ProcessingResult(ZODIAC_MENU_MESSAGE, true, false, false, true); // Показать меню зодиака
+    }
 
-        return switch (cmd) {
-            case "/start" -> new ProcessingResult(responseTemplates.getMainMenuMessage(), true, false);
-            case "/help" -> new ProcessingResult(responseTemplates.getHelpMessage(), true, false);
-            case "/about" -> new ProcessingResult(responseTemplates.getAboutMessage(), true, false);
-            case "/status" -> processStatusCommand();
-            case "/models" -> new ProcessingResult(responseTemplates.getModelsMessage(), true, false);
+    @CommandHandler({"/lucky", "/рулетка"})
+    private ProcessingResult luckyCommand() {
+        try {
+            RouletteService.RouletteResult result = rouletteService.spin();
+            String response = rouletteService.formatResult(result);
+            return new ProcessingResult(response, true, false, true);
+        } catch (Exception e) {
+            logger.error("❌ Ошибка команды /lucky: {}", e.getMessage());
+            return new ProcessingResult("❌ Рулетка временно не работает.", true, false);
+        }
+    }
 
-            // ИСПРАВЛЕННЫЕ НОВЫЕ КОМАНДЫ
-            case "/joke", "/анекдот" -> {
-                try {
-                    String joke = jokeService.getRandomJoke();
-                    yield new ProcessingResult(responseTemplates.getJokeIntroMessage() + joke, true, false);
-                } catch (Exception e) {
-                    logger.error("❌ Ошибка команды /joke: {}", e.getMessage());
-                    yield new ProcessingResult(responseTemplates.getJokeErrorMessage(), true, false);
-                }
-            }
+    @CallbackHandler("info_creator")
+    private ProcessingResult creatorInfoCallback() {
+        return new ProcessingResult(responseTemplates.getCreatorInfoMessage(), true, true);
+    }
 
-            case "/weather", "/погода" -> {
-                try {
-                    String weather = weatherService.getWeather();
-                    yield new ProcessingResult(weather, true, false);
-                } catch (Exception e) {
-                    logger.error("❌ Ошибка команды /weather: {}", e.getMessage());
-                    yield new ProcessingResult(responseTemplates.getWeatherErrorMessage(), true, false);
-                }
-            }
+    @CallbackHandler("back_main")
+    private ProcessingResult backToMainCallback() {
+        return new ProcessingResult(responseTemplates.getBackToMainMessage(), true, false)
+                .withKeyboard(KeyboardFactory.getMainMenuKeyboard());
+    }
 
-            // ИЗМЕНЕНО: /horoscope теперь тоже показывает меню
-            case "/horoscope", "/гороскоп" -> {
-                logger.info("🔮 Команда гороскопа: показать меню выбора");
-                String menuMessage = "🔮 **Выберите ваш знак зодиака:**\n\n" +
-                        "Нажмите на кнопку с вашим знаком, чтобы получить персональный гороскоп на сегодня.";
-                yield new ProcessingResult(menuMessage, true, false, false, true); // Показать меню зодиака
-            }
+    @CallbackHandler("cmd_start")
+    private ProcessingResult startCallback() {
+        return new ProcessingResult("❓ Неизвестная команда", true, false)
+                .withKeyboard(KeyboardFactory.getMainMenuKeyboard());
+    }
 
-            case "/lucky", "/рулетка" -> {
-                try {
-                    RouletteService.RouletteResult result = rouletteService.spin();
-                    String response = rouletteService.formatResult(result);
-                    yield new ProcessingResult(response, true, false, true);
-                } catch (Exception e) {
-                    logger.error("❌ Ошибка команды /lucky: {}", e.getMessage());
-                    yield new ProcessingResult("❌ Рулетка временно не работает.", true, false);
-                }
+    /**
+     * Выбор знака зодиака в меню: horoscope_<знак> или horoscope_random
+     */
+    @CallbackHandler(value = "horoscope_", prefix = true)
+    private ProcessingResult zodiacCallback(String zodiacSign) {
+        logger.info("🔮 Выбран знак зодиака: {}", zodiacSign);
+
+        if ("random".equals(zodiacSign)) {
+            // Случайный гороскоп
+            try {
+                String horoscope = horoscopeService.getRandomHoroscope();
+                return new ProcessingResult(horoscope, true, false);
+            } catch (Exception e) {
+                logger.error("❌ Ошибка при получении случайного гороскопа: {}", e.getMessage());
+                return new ProcessingResult("❌ Гороскоп временно недоступен.", true, false);
             }
+        }
+        // Конкретный знак
+        try {
+            String horoscope = horoscopeService.getHoroscope(zodiacSign);
+            return new ProcessingResult(horoscope, true, false);
+        } catch (Exception e) {
+            logger.error("❌ Ошибка при получении гороскопа для {}: {}", zodiacSign, e.getMessage());
+            return new ProcessingResult("❌ Гороскоп для " + zodiacSign + " временно недоступен.", true, false);
+        }
+    }
 
-            default -> {
-                if (isGroup) {
-                    yield new ProcessingResult("", false);
-                } else {
-                    yield new ProcessingResult(
-                            "❓ Неизвестная команда. Используйте /help для просмотра доступных команд.", true, false
-                    );
-                }
-            }
-        };
+    /**
+     * Вопрос, на который нужен подробный ответ: больше размышлений и длиннее ответ
+     */
+    @CommandHandler({"/ask", "/спроси"})
+    private ProcessingResult askCommand(String question) {
+        if (question.isEmpty()) {
+            return new ProcessingResult("🧠 Напишите вопрос после команды: /ask как устроен двигатель внутреннего сгорания?",
+                    true, false);
+        }
+        return ProcessingResult.askAi(question);
     }
 
+    @CommandHandler("/status")
+    @CallbackHandler("cmd_status")
     private ProcessingResult processStatusCommand() {
         boolean isAvailable = googleAiService.isApiAvailable();
         String status = isAvailable ? "✅ Онлайн" : "❌ Недоступен";
@@ -367,31 +506,71 @@ public class MessageProcessor {
         return new ProcessingResult(message.toString(), true, false);
     }
 
-    private ProcessingResult processUserMessage(String messageText, String userName) {
+    private ProcessingResult processUserMessage(Long chatId, String messageText, String userName, Tier tier) {
         String enhanced = enhanceMessageWithTemplate(messageText);
-        try {
-            String aiResponse = googleAiService.sendRequest(enhanced);
-            logger.debug("Ответ AI для {}: {}...", userName,
-                    aiResponse.substring(0, Math.min(aiResponse.length(), 100)));
-            return new ProcessingResult(aiResponse, true, false);
-        } catch (Exception e) {
-            logger.error("Ошибка при запросе к Google AI: {}", e.getMessage(), e);
-            return new ProcessingResult("❌ Ошибка при обращении к AI. Попробуйте позже.", true, false);
+        if (aiStreaming) {
+            // Ответ будет доставляться по мере генерации, см. streamAiAnswer
+            return ProcessingResult.streaming(enhanced, tier);
         }
+
+        // Поток обработки не ждёт ответ AI: бот доставит его, когда future завершится
+        CompletableFuture<String> aiResponse = googleAiService
+                .sendRequestAsync(enhanced, conversationContext.get(chatId), tier)
+                .thenApply(response -> {
+                    logger.debug("Ответ AI для {}: {}...", userName,
+                            response.substring(0, Math.min(response.length(), 100)));
+                    conversationContext.append(chatId, enhanced, response);
+                    return response;
+                })
+                .exceptionally(e -> {
+                    logger.error("Ошибка при запросе к Google AI: {}", e.getMessage(), e);
+                    return aiErrorMessage(e);
+                });
+        return ProcessingResult.deferred(aiResponse);
     }
 
-    private String enhanceMessageWithTemplate(String messageText) {
-        String lower = messageText.toLowerCase();
-
-        for (var entry : keywordTemplates.entrySet()) {
-            if (lower.contains(entry.getKey())) {
-                String template = entry.getValue();
-                String rest = messageText.substring(lower.indexOf(entry.getKey())
-                        + entry.getKey().length()).trim();
-                return rest.isEmpty() ? template + messageText : template + rest;
+    /**
+     * Запрашивает ответ AI в потоковом режиме с контекстом разговора в чате
+     * @param chatId чат, контекст которого передаётся модели и пополняется ответом
+     * @param prompt подготовленный запрос из ProcessingResult.getStreamingPrompt()
+     * @param tier уровень задержки из ProcessingResult.getTier()
+     * @param onChunk получатель фрагментов ответа (вызывается из потока HTTP-клиента)
+     * @return future с полным ответом; при обрыве - полученная часть с пометкой,
+     *         без ответа - сообщение об ошибке. Завершается всегда успешно.
+     */
+    public CompletableFuture<String> streamAiAnswer(Long chatId, String prompt, Tier tier, Consumer<String> onChunk) {
+        StringBuilder received = new StringBuilder();
+        return googleAiService.sendStreamingRequestAsync(prompt, conversationContext.get(chatId), tier, chunk -> {
+            received.append(chunk);
+            onChunk.accept(chunk);
+        }).thenApply(answer -> {
+            conversationContext.append(chatId, prompt, answer);
+            return answer;
+        }).exceptionally(e -> {
+            logger.error("Ошибка при потоковом запросе к Google AI: {}", e.getMessage(), e);
+            if (received.length() > 0) {
+                String notice = "\n\n⚠️ Ответ прерван, попробуйте повторить вопрос.";
+                onChunk.accept(notice);
+                return received + notice;
             }
+            return aiErrorMessage(e);
+        });
+    }
+
+    /**
+     * Текст ошибки AI: при перегрузке (запрос отклонён лимитером или квота исчерпана) - шаблон API-ошибки
+     */
+    private String aiErrorMessage(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException || GoogleAiService.isOverloaded(cause)) {
+            return responseTemplates.getApiErrorMessage();
         }
-        return messageText;
+        return AI_ERROR_MESSAGE;
+    }
+
+    private String enhanceMessageWithTemplate(String messageText) {
+        return promptTemplateEngine.apply(messageText);
     }
 
     /**
@@ -401,52 +580,66 @@ public class MessageProcessor {
         String data = callbackQuery.getData();
         logger.info("Получен callback: {}", data);
 
-        // НОВАЯ ЛОГИКА: Обработка выбора знаков зодиака
-        if (data.startsWith("horoscope_")) {
-            String zodiacSign = data.substring("horoscope_".length());
-            logger.info("🔮 Выбран знак зодиака: {}", zodiacSign);
+        ProcessingResult result = handlers.dispatchCallback(data);
+        return result != null ? result : new ProcessingResult("❓ Неизвестная команда", true, false);
+    }
 
-            if ("random".equals(zodiacSign)) {
-                // Случайный гороскоп
-                try {
-                    String horoscope = horoscopeService.getRandomHoroscope();
-                    return new ProcessingResult(horoscope, true, false);
-                } catch (Exception e) {
-                    logger.error("❌ Ошибка при получении случайного гороскопа: {}", e.getMessage());
-                    return new ProcessingResult("❌ Гороскоп временно недоступен.", true, false);
+    /**
+     * Возвращает метрики обработчиков команд и кнопок
+     */
+    public Map<String, Object> getHandlerMetrics() {
+        return handlers.getMetrics();
+    }
+
+    /**
+     * Обращение к боту: упоминание (по сущностям сообщения, без разбора текста) или ответ на сообщение бота.
+     * Если имя бота не задано, подходит любое упоминание.
+     */
+    private boolean isMessageForBot(Message message) {
+        List<MessageEntity> entities = message.getEntities();
+        if (entities != null) {
+            for (MessageEntity entity : entities) {
+                if ("mention".equals(entity.getType())
+                        && (botMention == null || botMention.equalsIgnoreCase(entity.getText()))) {
+                    return true;
                 }
-            } else {
-                // Конкретный знак
-                try {
-                    String horoscope = horoscopeService.getHoroscope(zodiacSign);
-                    return new ProcessingResult(horoscope, true, false);
-                } catch (Exception e) {
-                    logger.error("❌ Ошибка при получении гороскопа для {}: {}", zodiacSign, e.getMessage());
-                    return new ProcessingResult("❌ Гороскоп для " + zodiacSign + " временно недоступен.", true, false);
+                if ("text_mention".equals(entity.getType()) && entity.getUser() != null
+                        && Boolean.TRUE.equals(entity.getUser().getIsBot())
+                        && (botMention == null || botMention.equalsIgnoreCase("@" + entity.getUser().getUserName()))) {
+                    return true;
                 }
             }
         }
 
-        // Существующие callback'и
-        return switch (data) {
-            case "cmd_about" -> new ProcessingResult(responseTemplates.getAboutMessage(), true, false);
-            case "cmd_help" -> new ProcessingResult(responseTemplates.getHelpMessage(), true, false);
-            case "cmd_status" -> processStatusCommand();
-            case "cmd_models" -> new ProcessingResult(responseTemplates.getModelsMessage(), true, false);
-            case "info_creator" -> new ProcessingResult(responseTemplates.getCreatorInfoMessage(), true, true);
-            case "back_main" -> new ProcessingResult(responseTemplates.getBackToMainMessage(), true, false);
-            default -> new ProcessingResult("❓ Неизвестная команда", true, false);
-        };
+        var reply = message.getReplyToMessage();
+        if (reply == null || reply.getFrom() == null || !Boolean.TRUE.equals(reply.getFrom().getIsBot())) {
+            return false;
+        }
+        return botMention == null || botMention.equalsIgnoreCase("@" + reply.getFrom().getUserName());
     }
 
-    private boolean isMessageForBot(Message message) {
-        String text = message.getText();
-        if (text != null && text.contains("@")) {
-            return true;
-        }
+    /**
+     * Возвращает метрики классификатора намерений
+     */
+    public Map<String, Object> getIntentClassifierMetrics() {
+        return intentClassifier.getMetrics();
+    }
 
-        var reply = message.getReplyToMessage();
-        return reply != null && reply.getFrom().getIsBot();
+    /**
+     * Возвращает метрики отсева сообщений в группах
+     */
+    public Map<String, Object> getGroupFilterMetrics() {
+        long total = groupMessages.get();
+        long rejected = groupRejected.get();
+        long passed = groupPrefilterPassed.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("group_messages", total);
+        metrics.put("rejected", rejected);
+        metrics.put("reject_ratio", total == 0 ? 0.0 : (double) rejected / total);
+        metrics.put("prefilter_passed", passed);
+        metrics.put("false_positives", groupFalsePositives.get());
+        metrics.put("false_positive_ratio", passed == 0 ? 0.0 : (double) groupFalsePositives.get() / passed);
+        return metrics;
     }
 
     private String getUserName(Message message) {
@@ -462,14 +655,58 @@ public class MessageProcessor {
     }
 
     /**
-     * ОБНОВЛЕННЫЙ ProcessingResult с поддержкой меню зодиака
+     * Намерение, определённое при маршрутизации сообщения
+     */
+    public enum Intent {
+        COMMAND(MessageType.COMMAND),
+        KEYWORD(MessageType.SPECIAL_KEYWORD),
+        AI_REQUEST(MessageType.AI_REQUEST),
+        CALLBACK(MessageType.CALLBACK),
+        ERROR(MessageType.ERROR),
+        IGNORED(null);
+
+        private final MessageType messageType;
+
+        Intent(MessageType messageType) {
+            this.messageType = messageType;
+        }
+
+        public MessageType getMessageType() { return messageType; }
+    }
+
+    /**
+     * Способ доставки ответа
+     */
+    public enum DeliveryMode {
+        /** Отвечать не нужно */
+        NONE,
+        /** Готовый текст (с клавиатурой, если она есть) */
+        TEXT,
+        /** Анимация кубика, затем текст отложенным продолжением */
+        ROULETTE_ANIMATION,
+        /** Ответ AI генерируется потоково при доставке */
+        STREAMING,
+        /** Ответ ещё вычисляется, доставка по завершении future */
+        DEFERRED
+    }
+
+    /**
+     * Результат обработки: ответ, намерение, клавиатура и способ доставки.
+     * Классификация выполняется один раз здесь, бот только исполняет результат.
      */
     public static class ProcessingResult {
         private final String response;
         private final boolean shouldReply;
-        private final boolean showCreatorKeyboard;
-        private final boolean needsRouletteAnimation;
-        private final boolean showZodiacMenu; // НОВОЕ ПОЛЕ
+        private final InlineKeyboardMarkup keyboard;
+        private final boolean rouletteAnimation;
+        private final String streamingPrompt;
+        private final CompletableFuture<String> deferredResponse;
+        private final Intent intent;
+        private final Trigger trigger;
+        private final Tier tier;
+        private final String aiQuestion;
+        // Владелец слота чата в AiRequestCollapser; передаётся в completeAiRequest после доставки
+        private final long aiSlot;
 
         public ProcessingResult(String response, boolean shouldReply) {
             this(response, shouldReply, false, false, false);
@@ -486,17 +723,99 @@ public class MessageProcessor {
         // НОВЫЙ КОНСТРУКТОР с поддержкой меню зодиака
         public ProcessingResult(String response, boolean shouldReply, boolean showCreatorKeyboard,
                                 boolean needsRouletteAnimation, boolean showZodiacMenu) {
+            this(response, shouldReply,
+                    showCreatorKeyboard ? KeyboardFactory.getCreatorInfoKeyboard()
+                            : showZodiacMenu ? KeyboardFactory.getZodiacMenuKeyboard() : null,
+                    needsRouletteAnimation, null, null, Intent.IGNORED, null, null, null, 0);
+        }
+
+        private ProcessingResult(String response, boolean shouldReply, InlineKeyboardMarkup keyboard,
+                                 boolean rouletteAnimation, String streamingPrompt,
+                                 CompletableFuture<String> deferredResponse, Intent intent, Trigger trigger,
+                                 Tier tier, String aiQuestion, long aiSlot) {
             this.response = response;
             this.shouldReply = shouldReply;
-            this.showCreatorKeyboard = showCreatorKeyboard;
-            this.needsRouletteAnimation = needsRouletteAnimation;
-            this.showZodiacMenu = showZodiacMenu;
+            this.keyboard = keyboard;
+            this.rouletteAnimation = rouletteAnimation;
+            this.streamingPrompt = streamingPrompt;
+            this.deferredResponse = deferredResponse;
+            this.intent = intent;
+            this.trigger = trigger;
+            this.tier = tier;
+            this.aiQuestion = aiQuestion;
+            this.aiSlot = aiSlot;
+        }
+
+        /**
+         * Результат, ответ на который генерируется потоково уже при доставке
+         */
+        public static ProcessingResult streaming(String prompt, Tier tier) {
+            return new ProcessingResult("", true, null, false, prompt, null, Intent.AI_REQUEST, null, tier, null, 0);
+        }
+
+        /**
+         * Результат, ответ которого ещё вычисляется (future завершается всегда успешно)
+         */
+        public static ProcessingResult deferred(CompletableFuture<String> response) {
+            return new ProcessingResult("", true, null, false, null, response, Intent.AI_REQUEST, null, null, null, 0);
+        }
+
+        /**
+         * Результат обработчика команды: вопрос нужно отправить в AI на уровне DEEP
+         */
+        public static ProcessingResult askAi(String question) {
+            return new ProcessingResult("", false, null, false, null, null, Intent.AI_REQUEST, null,
+                    Tier.DEEP, question, 0);
+        }
+
+        /**
+         * Копия с определённым намерением
+         * @param trigger ключевое слово, если намерение KEYWORD
+         */
+        public ProcessingResult withIntent(Intent intent, Trigger trigger) {
+            return new ProcessingResult(response, shouldReply, keyboard, rouletteAnimation,
+                    streamingPrompt, deferredResponse, intent, trigger, tier, aiQuestion, aiSlot);
+        }
+
+        /**
+         * Копия с клавиатурой под ответом
+         */
+        public ProcessingResult withKeyboard(InlineKeyboardMarkup keyboard) {
+            return new ProcessingResult(response, shouldReply, keyboard, rouletteAnimation,
+                    streamingPrompt, deferredResponse, intent, trigger, tier, aiQuestion, aiSlot);
+        }
+
+        /**
+         * Копия, закреплённая за слотом чата в AiRequestCollapser
+         */
+        public ProcessingResult withAiSlot(long aiSlot) {
+            return new ProcessingResult(response, shouldReply, keyboard, rouletteAnimation,
+                    streamingPrompt, deferredResponse, intent, trigger, tier, aiQuestion, aiSlot);
+        }
+
+        public DeliveryMode getDeliveryMode() {
+            if (streamingPrompt != null) {
+                return DeliveryMode.STREAMING;
+            }
+            if (deferredResponse != null) {
+                return DeliveryMode.DEFERRED;
+            }
+            if (!shouldReply || response == null || response.trim().isEmpty()) {
+                return DeliveryMode.NONE;
+            }
+            return rouletteAnimation ? DeliveryMode.ROULETTE_ANIMATION : DeliveryMode.TEXT;
         }
 
         public String getResponse() { return response; }
         public boolean shouldReply() { return shouldReply; }
-        public boolean shouldShowCreatorKeyboard() { return showCreatorKeyboard; }
-        public boolean needsRouletteAnimation() { return needsRouletteAnimation; }
-        public boolean shouldShowZodiacMenu() { return showZodiacMenu; } // НОВЫЙ ГЕТТЕР
+        public InlineKeyboardMarkup getKeyboard() { return keyboard; }
+        public Intent getIntent() { return intent; }
+        public Trigger getTrigger() { return trigger; }
+        public MessageType getMessageType() { return intent.getMessageType(); }
+        public String getStreamingPrompt() { return streamingPrompt; }
+        public Tier getTier() { return tier; }
+        public String getAiQuestion() { return aiQuestion; }
+        public CompletableFuture<String> getDeferredResponse() { return deferredResponse; }
+        public long getAiSlot() { return aiSlot; }
     }
-}
\ No newline at end of file
+}
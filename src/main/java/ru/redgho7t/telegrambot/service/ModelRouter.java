@@ -0,0 +1,408 @@
+package ru.redgho7t.telegrambot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.redgho7t.telegrambot.service.GenerationTiers.Tier;
+import ru.redgho7t.telegrambot.utils.LatencyRecorder;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Выбор модели Gemini и защита от "хвостовых" задержек.
+ * Модели перебираются в порядке из настроек (для FAST первой идёт fast-model). Если первая модель
+ * не ответила за p95 своих недавних задержек, параллельно отправляется запрос ко второй (hedged request):
+ * побеждает ответивший первым, проигравший вызов отменяется, а его время до отмены пишется в гистограмму
+ * как оценка снизу - иначе hedge отрезал бы медленный хвост основной модели и занижал её p95.
+ * При ошибке сразу пробуется следующая модель.
+ * Модель, у которой недавний p95 выше slow-p95-ms, временно уступает первое место следующей.
+ */
+@Component
+public class ModelRouter {
+    private static final Logger logger = LoggerFactory.getLogger(ModelRouter.class);
+
+    private final List<String> models;
+    private final String fastModel;
+    private final boolean hedgeEnabled;
+    private final double hedgeQuantile;
+    private final long defaultDelayMs;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final int maxHedgePercent;
+    private final int minSamples;
+    private final long slowP95Nanos;
+    private final Map<String, ModelStats> stats = new LinkedHashMap<>();
+
+    private final AtomicLong routed = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgesOverBudget = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong demotions = new AtomicLong();
+    // Отстранённые сейчас маршруты "модель/уровень/поток": demotions считает только переходы
+    private final Set<String> demoted = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Попытка вызова одной модели в рамках запроса
+     */
+    public static final class Attempt {
+        private final String model;
+        private final Route<?> route;
+        private final long startNanos = System.nanoTime();
+        private volatile CompletableFuture<?> call;
+
+        private Attempt(String model, Route<?> route) {
+            this.model = model;
+            this.route = route;
+        }
+
+        public String model() {
+            return model;
+        }
+
+        /**
+         * Закрепляет ответ за этой попыткой. Потоковый вызов делает это на первом фрагменте,
+         * чтобы пользователь не получил текст от двух моделей.
+         * @return true, если победила эта попытка; фрагменты проигравшей нужно отбросить
+         */
+        public boolean claim() {
+            return route.claim(this);
+        }
+    }
+
+    @Autowired
+    public ModelRouter(@Value("${telegram.bot.gemini.models:gemini-2.5-flash,gemini-2.5-flash-lite}") String models,
+                       @Value("${telegram.bot.gemini.fast-model:gemini-2.5-flash-lite}") String fastModel,
+                       @Value("${telegram.bot.gemini.hedge.enabled:true}") boolean hedgeEnabled,
+                       @Value("${telegram.bot.gemini.hedge.quantile:0.95}") double hedgeQuantile,
+                       @Value("${telegram.bot.gemini.hedge.default-delay-ms:8000}") long defaultDelayMs,
+                       @Value("${telegram.bot.gemini.hedge.min-delay-ms:1000}") long minDelayMs,
+                       @Value("${telegram.bot.gemini.hedge.max-delay-ms:30000}") long maxDelayMs,
+                       @Value("${telegram.bot.gemini.hedge.max-percent:10}") int maxHedgePercent,
+                       @Value("${telegram.bot.gemini.router.min-samples:20}") int minSamples,
+                       @Value("${telegram.bot.gemini.router.window-ms:300000}") long windowMs,
+                       @Value("${telegram.bot.gemini.router.slow-p95-ms:20000}") long slowP95Ms) {
+        Set<String> ordered = new LinkedHashSet<>();
+        for (String model : models.split(",")) {
+            if (!model.isBlank()) {
+                ordered.add(model.trim());
+            }
+        }
+        if (!fastModel.isBlank()) {
+            ordered.add(fastModel.trim());
+        }
+        if (ordered.isEmpty()) {
+            throw new IllegalArgumentException("Не задана ни одна модель Gemini (telegram.bot.gemini.models)");
+        }
+        this.models = List.copyOf(ordered);
+        this.fastModel = fastModel.isBlank() ? null : fastModel.trim();
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeQuantile = hedgeQuantile;
+        this.defaultDelayMs = defaultDelayMs;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxHedgePercent = maxHedgePercent;
+        this.minSamples = minSamples;
+        this.slowP95Nanos = TimeUnit.MILLISECONDS.toNanos(slowP95Ms);
+        for (String model : this.models) {
+            stats.put(model, new ModelStats(windowMs));
+        }
+        logger.info("ModelRouter: модели {}, для FAST - {}, hedge {} (p{} задержек, не более {}% запросов)",
+                this.models, this.fastModel, hedgeEnabled ? "включён" : "выключен",
+                Math.round(hedgeQuantile * 100), maxHedgePercent);
+    }
+
+    /**
+     * Порядок моделей для запроса: первая - основная, вторая - для hedge, остальные - запасные
+     */
+    public List<String> route(Tier tier, boolean streaming) {
+        List<String> order = new ArrayList<>(models);
+        if (tier == Tier.FAST && fastModel != null) {
+            order.remove(fastModel);
+            order.add(0, fastModel);
+        }
+        if (order.size() > 1) {
+            LatencyRecorder primary = stats.get(order.get(0)).latency(tier, streaming);
+            LatencyRecorder secondary = stats.get(order.get(1)).latency(tier, streaming);
+            long primaryP95 = primary.recentCount() >= minSamples ? primary.percentileNanos(0.95) : -1;
+            // Модель без свежих замеров считается здоровой: так отстранённая модель возвращается в строй
+            long secondaryP95 = secondary.recentCount() >= minSamples ? secondary.percentileNanos(0.95) : -1;
+            String routeKey = order.get(0) + "/" + tier + (streaming ? "/stream" : "");
+            if (primaryP95 > slowP95Nanos && (secondaryP95 < 0 || secondaryP95 < primaryP95)) {
+                if (demoted.add(routeKey)) {
+                    demotions.incrementAndGet();
+                    logger.warn("🐢 {}: p95 {} мс выше порога, первой идёт {}", routeKey,
+                            TimeUnit.NANOSECONDS.toMillis(primaryP95), order.get(1));
+                }
+                order.add(0, order.remove(1));
+            } else if (demoted.remove(routeKey)) {
+                logger.info("✅ {} возвращена на первое место", routeKey);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Выполняет запрос с выбором модели, hedge и переходом на следующую модель при ошибке
+     * @param launcher запускает вызов указанной модели; отмена future должна отменять HTTP-вызов
+     */
+    public <T> CompletableFuture<T> execute(Tier tier, boolean streaming,
+                                            Function<Attempt, CompletableFuture<T>> launcher) {
+        routed.incrementAndGet();
+        List<String> order = route(tier, streaming);
+        Route<T> route = new Route<>(this, tier, streaming, order, launcher);
+        route.launchNext();
+        if (hedgeEnabled && order.size() > 1) {
+            long delay = hedgeDelayMs(order.get(0), tier, streaming);
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(route::hedge);
+        }
+        return route.result;
+    }
+
+    /**
+     * Срок ожидания основной модели: квантиль её недавних задержек (для потока - до первого фрагмента)
+     */
+    long hedgeDelayMs(String model, Tier tier, boolean streaming) {
+        LatencyRecorder latency = stats.get(model).latency(tier, streaming);
+        if (latency.recentCount() < minSamples) {
+            return defaultDelayMs;
+        }
+        long delay = TimeUnit.NANOSECONDS.toMillis(latency.percentileNanos(hedgeQuantile));
+        return Math.max(minDelayMs, Math.min(maxDelayMs, delay));
+    }
+
+    /**
+     * Бюджет hedge: дополнительные запросы тратят квоту API, поэтому их доля ограничена
+     */
+    private boolean tryHedgeBudget() {
+        if (hedges.get() * 100 >= routed.get() * maxHedgePercent) {
+            hedgesOverBudget.incrementAndGet();
+            return false;
+        }
+        hedges.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Метрики маршрутизации и задержки по моделям и уровням
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("order", models);
+        metrics.put("fast_model", fastModel);
+        metrics.put("routed", routed.get());
+        metrics.put("hedges", hedges.get());
+        metrics.put("hedges_over_budget", hedgesOverBudget.get());
+        metrics.put("fallbacks", fallbacks.get());
+        metrics.put("demotions", demotions.get());
+        metrics.put("demoted", List.copyOf(demoted));
+        Map<String, Object> perModel = new LinkedHashMap<>();
+        stats.forEach((model, modelStats) -> perModel.put(model, modelStats.getMetrics()));
+        metrics.put("per_model", perModel);
+        return metrics;
+    }
+
+    /**
+     * Один запрос пользователя: попытки разных моделей и общий результат
+     */
+    private static final class Route<T> {
+        private final ModelRouter router;
+        private final Tier tier;
+        private final boolean streaming;
+        private final List<String> order;
+        private final Function<Attempt, CompletableFuture<T>> launcher;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicReference<Attempt> winner = new AtomicReference<>();
+        private final AtomicReference<Throwable> lastError = new AtomicReference<>();
+        private final List<Attempt> attempts = new CopyOnWriteArrayList<>();
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        Route(ModelRouter router, Tier tier, boolean streaming, List<String> order,
+              Function<Attempt, CompletableFuture<T>> launcher) {
+            this.router = router;
+            this.tier = tier;
+            this.streaming = streaming;
+            this.order = order;
+            this.launcher = launcher;
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) {
+                    attempts.forEach(attempt -> cancel(attempt));
+                }
+            });
+        }
+
+        /**
+         * Срабатывает по сроку hedge: основная модель ещё не ответила
+         */
+        void hedge() {
+            if (result.isDone() || winner.get() != null || next.get() != 1 || !router.tryHedgeBudget()) {
+                return;
+            }
+            Attempt attempt = launchNext();
+            if (attempt != null) {
+                router.stats.get(attempt.model).hedged.incrementAndGet();
+                logger.info("⏱️ {} не ответила вовремя, дублируем запрос в {}", order.get(0), attempt.model);
+            }
+        }
+
+        /**
+         * Запускает следующую модель из списка; null, если модели кончились
+         */
+        Attempt launchNext() {
+            // pending увеличивается до выбора модели, чтобы параллельная ошибка не завершила запрос раньше времени
+            pending.incrementAndGet();
+            int index = next.getAndIncrement();
+            if (index >= order.size() || result.isDone()) {
+                finish();
+                return null;
+            }
+
+            Attempt attempt = new Attempt(order.get(index), this);
+            attempts.add(attempt);
+            router.stats.get(attempt.model).calls.incrementAndGet();
+            CompletableFuture<T> call;
+            try {
+                call = launcher.apply(attempt);
+            } catch (RuntimeException e) {
+                call = CompletableFuture.failedFuture(e);
+            }
+            attempt.call = call;
+            Attempt current = winner.get();
+            if ((current != null && current != attempt) || result.isDone()) {
+                call.cancel(true);
+            }
+            call.whenComplete((value, error) -> complete(attempt, value, error));
+            return attempt;
+        }
+
+        boolean claim(Attempt attempt) {
+            if (winner.get() == attempt) {
+                return true;
+            }
+            if (!winner.compareAndSet(null, attempt)) {
+                return false;
+            }
+            ModelStats modelStats = router.stats.get(attempt.model);
+            modelStats.latency(tier, streaming).recordSince(attempt.startNanos);
+            modelStats.wins.incrementAndGet();
+            for (Attempt other : attempts) {
+                if (other != attempt) {
+                    recordCensored(other);
+                    cancel(other);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Проигравшая попытка ещё выполняется: её задержка не меньше прошедшего времени.
+         * Эта оценка снизу сохраняет медленный хвост в гистограмме, по которой считаются
+         * срок hedge и отстранение модели
+         */
+        private void recordCensored(Attempt attempt) {
+            CompletableFuture<?> call = attempt.call;
+            if (call == null || call.isDone()) {
+                return;
+            }
+            ModelStats modelStats = router.stats.get(attempt.model);
+            modelStats.latency(tier, streaming).recordSince(attempt.startNanos);
+            modelStats.censored.incrementAndGet();
+        }
+
+        private void complete(Attempt attempt, T value, Throwable error) {
+            if (error == null) {
+                if (claim(attempt)) {
+                    result.complete(value);
+                }
+            } else if (winner.get() == attempt) {
+                // Потоковый ответ уже начал доставляться - переключиться на другую модель нельзя
+                result.completeExceptionally(error);
+            } else if (winner.get() == null && !result.isDone()) {
+                router.stats.get(attempt.model).failures.incrementAndGet();
+                lastError.set(error);
+                if (next.get() < order.size()) {
+                    logger.warn("↪️ {} ответила ошибкой ({}), пробуем следующую модель",
+                            attempt.model, error.getMessage());
+                    if (launchNext() != null) {
+                        router.fallbacks.incrementAndGet();
+                    }
+                }
+            }
+            finish();
+        }
+
+        /**
+         * Последняя завершившаяся попытка без победителя завершает запрос ошибкой
+         */
+        private void finish() {
+            if (pending.decrementAndGet() == 0 && winner.get() == null && next.get() >= order.size()) {
+                Throwable error = lastError.get();
+                result.completeExceptionally(error != null ? error : new IllegalStateException("Нет доступных моделей"));
+            }
+        }
+
+        private static void cancel(Attempt attempt) {
+            CompletableFuture<?> call = attempt.call;
+            if (call != null) {
+                call.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Счётчики и гистограммы одной модели: полное время ответа и время до первого фрагмента потока
+     */
+    private static final class ModelStats {
+        private final Map<Tier, LatencyRecorder> response = new EnumMap<>(Tier.class);
+        private final Map<Tier, LatencyRecorder> firstChunk = new EnumMap<>(Tier.class);
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong hedged = new AtomicLong();
+        private final AtomicLong wins = new AtomicLong();
+        private final AtomicLong censored = new AtomicLong();
+
+        ModelStats(long windowMs) {
+            for (Tier tier : Tier.values()) {
+                response.put(tier, new LatencyRecorder(windowMs));
+                firstChunk.put(tier, new LatencyRecorder(windowMs));
+            }
+        }
+
+        LatencyRecorder latency(Tier tier, boolean streaming) {
+            return (streaming ? firstChunk : response).get(tier);
+        }
+
+        Map<String, Object> getMetrics() {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("calls", calls.get());
+            metrics.put("failures", failures.get());
+            metrics.put("hedged", hedged.get());
+            metrics.put("wins", wins.get());
+            metrics.put("censored", censored.get());
+            for (Tier tier : Tier.values()) {
+                Map<String, Object> tierMetrics = new LinkedHashMap<>();
+                tierMetrics.put("response", response.get(tier).getMetrics());
+                tierMetrics.put("first_chunk", firstChunk.get(tier).getMetrics());
+                metrics.put(tier.name().toLowerCase(Locale.ROOT), tierMetrics);
+            }
+            return metrics;
+        }
+    }
+}
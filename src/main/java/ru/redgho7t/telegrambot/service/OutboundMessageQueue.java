@@ -0,0 +1,463 @@
+package ru.redgho7t.telegrambot.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import ru.redgho7t.telegrambot.utils.TokenBucket;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Очередь исходящих запросов к Telegram с учётом лимитов API.
+ * Лимиты: общий (~30 сообщений/с), на чат (~1 сообщение/с) и на группу (~20 сообщений/мин).
+ * Запросы одного чата уходят строго по порядку, следующий - только после завершения предыдущего.
+ * Неудачные запросы повторяются с backoff (429 - через retry_after), исчерпавшие попытки
+ * сохраняются в DeadLetterService.
+ * Очередь и ожидающие повтора запросы хранятся только в памяти. При штатной остановке
+ * отправляющиеся запросы дожидаются завершения (до shutdown-timeout-ms), а всё неотправленное
+ * переносится в dead letters; при аварийном завершении процесса содержимое очереди теряется.
+ */
+@Service
+public class OutboundMessageQueue {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundMessageQueue.class);
+
+    private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long IDLE_WAIT_NANOS = SECOND_NANOS;
+    private static final int TOP_CHATS_IN_METRICS = 5;
+    private static final long NO_RETRY = -1;
+
+    /**
+     * Запрос к Telegram API, выполняемый очередью
+     */
+    @FunctionalInterface
+    public interface SendAction<T> {
+        T send() throws TelegramApiException;
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Порядок вставки используется как round-robin между чатами; доступ только под lock
+    private final Map<Long, ChatOutbox> outboxes = new LinkedHashMap<>();
+
+    private final TokenBucket globalBucket;
+    private final double chatPerSecond;
+    private final int chatBurst;
+    private final int groupPerMinute;
+    private final int maxAttempts;
+    private final long retryBaseNanos;
+    private final long retryMaxNanos;
+    private final long shutdownTimeoutMs;
+    private final DeadLetterService deadLetterService;
+
+    private final ExecutorService senders;
+    private final Thread schedulerThread;
+    private volatile boolean running = true;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    @Autowired
+    public OutboundMessageQueue(@Value("${telegram.bot.outbound.global-per-second:30}") int globalPerSecond,
+                                @Value("${telegram.bot.outbound.chat-per-second:1}") double chatPerSecond,
+                                @Value("${telegram.bot.outbound.chat-burst:3}") int chatBurst,
+                                @Value("${telegram.bot.outbound.group-per-minute:20}") int groupPerMinute,
+                                @Value("${telegram.bot.outbound.sender-threads:4}") int senderThreads,
+                                @Value("${telegram.bot.outbound.max-attempts:5}") int maxAttempts,
+                                @Value("${telegram.bot.outbound.retry-base-ms:1000}") long retryBaseMs,
+                                @Value("${telegram.bot.outbound.retry-max-ms:60000}") long retryMaxMs,
+                                @Value("${telegram.bot.outbound.shutdown-timeout-ms:5000}") long shutdownTimeoutMs,
+                                DeadLetterService deadLetterService) {
+        this.globalBucket = new TokenBucket(globalPerSecond, globalPerSecond, SECOND_NANOS);
+        this.chatPerSecond = chatPerSecond;
+        this.chatBurst = chatBurst;
+        this.groupPerMinute = groupPerMinute;
+        this.maxAttempts = maxAttempts;
+        this.retryBaseNanos = TimeUnit.MILLISECONDS.toNanos(retryBaseMs);
+        this.retryMaxNanos = TimeUnit.MILLISECONDS.toNanos(retryMaxMs);
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.deadLetterService = deadLetterService;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "outbound-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.schedulerThread = new Thread(this::runScheduler, "outbound-scheduler");
+        this.schedulerThread.setDaemon(true);
+        this.schedulerThread.start();
+
+        logger.info("OutboundMessageQueue инициализирован: {}/с общий, {}/с на чат, {}/мин на группу",
+                globalPerSecond, chatPerSecond, groupPerMinute);
+    }
+
+    /**
+     * Ставит запрос в очередь чата
+     * @param chatId ID чата (отрицательный - группа или канал)
+     * @param action запрос к Telegram API
+     * @return результат запроса после фактической отправки
+     */
+    public <T> CompletableFuture<T> enqueue(Long chatId, SendAction<T> action) {
+        return enqueue(chatId, null, action);
+    }
+
+    /**
+     * Ставит запрос в очередь чата
+     * @param chatId ID чата (отрицательный - группа или канал)
+     * @param payload текст сообщения для dead letters, если запрос не удастся доставить
+     * @param action запрос к Telegram API
+     * @return результат запроса после фактической отправки
+     */
+    public <T> CompletableFuture<T> enqueue(Long chatId, String payload, SendAction<T> action) {
+        OutboundItem<T> item = new OutboundItem<>(action, payload, System.nanoTime());
+        lock.lock();
+        try {
+            outboxes.computeIfAbsent(chatId, ChatOutbox::new).items.add(item);
+            queued.incrementAndGet();
+            enqueued.incrementAndGet();
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        return item.future;
+    }
+
+    /**
+     * Возвращает метрики очереди
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        Map<String, Integer> topChats = new LinkedHashMap<>();
+        int activeChats;
+
+        lock.lock();
+        try {
+            activeChats = outboxes.size();
+            outboxes.values().stream()
+                    .filter(outbox -> !outbox.items.isEmpty())
+                    .sorted(Comparator.comparingInt((ChatOutbox outbox) -> outbox.items.size()).reversed())
+                    .limit(TOP_CHATS_IN_METRICS)
+                    .forEach(outbox -> topChats.put(String.valueOf(outbox.chatId), outbox.items.size()));
+        } finally {
+            lock.unlock();
+        }
+
+        long sentCount = sent.get() + failed.get();
+        metrics.put("queued", queued.get());
+        metrics.put("in_flight", inFlight.get());
+        metrics.put("active_chats", activeChats);
+        metrics.put("top_chat_queues", topChats);
+        metrics.put("enqueued", enqueued.get());
+        metrics.put("sent", sent.get());
+        metrics.put("failed", failed.get());
+        metrics.put("retried", retried.get());
+        metrics.put("dead_lettered", deadLettered.get());
+        metrics.put("avg_wait_ms", sentCount > 0 ? totalWaitNanos.get() / sentCount / 1_000_000.0 : 0.0);
+        metrics.put("max_wait_ms", maxWaitNanos.get() / 1_000_000.0);
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        schedulerThread.interrupt();
+        try {
+            // Планировщик может быть посреди dispatchReady: пул отправки закрываем только после его выхода
+            schedulerThread.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        senders.shutdown();
+        try {
+            // Отправляющиеся запросы завершаются; неудачные из них вернутся в очередь и попадут в dead letters
+            if (!senders.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("⚠️ Не все отправки завершились за {} мс", shutdownTimeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Неотправленное сохраняем в dead letters, чтобы ничего не потерялось бесследно
+        Map<Long, List<OutboundItem<?>>> pending = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            for (ChatOutbox outbox : outboxes.values()) {
+                if (!outbox.items.isEmpty()) {
+                    pending.put(outbox.chatId, new ArrayList<>(outbox.items));
+                    outbox.items.clear();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        int dropped = 0;
+        for (Map.Entry<Long, List<OutboundItem<?>>> entry : pending.entrySet()) {
+            for (OutboundItem<?> item : entry.getValue()) {
+                CancellationException error = new CancellationException("Бот остановлен до отправки");
+                deadLetter(entry.getKey(), item, error);
+                item.future.completeExceptionally(error);
+                dropped++;
+            }
+        }
+
+        if (dropped > 0) {
+            logger.warn("⚠️ Остановка очереди исходящих, в dead letters перемещено: {}", dropped);
+        }
+    }
+
+    private void runScheduler() {
+        while (running) {
+            lock.lock();
+            try {
+                long waitNanos = dispatchReady();
+                changed.awaitNanos(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("❌ Ошибка планировщика исходящих: {}", e.getMessage(), e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Отправляет всё, что разрешают лимиты. Вызывается под lock.
+     * @return сколько наносекунд можно ждать до следующей проверки
+     */
+    private long dispatchReady() {
+        long now = System.nanoTime();
+        long minWait = IDLE_WAIT_NANOS;
+        List<ChatOutbox> dispatched = new ArrayList<>();
+
+        Iterator<ChatOutbox> iterator = outboxes.values().iterator();
+        while (iterator.hasNext()) {
+            ChatOutbox outbox = iterator.next();
+            if (outbox.inFlight) {
+                continue;
+            }
+            if (outbox.items.isEmpty()) {
+                if (outbox.isIdle(now)) {
+                    iterator.remove();
+                }
+                continue;
+            }
+
+            // Повтор не раньше назначенного времени, порядок чата при этом сохраняется
+            long wait = Math.max(outbox.items.peek().notBeforeNanos - now, 0);
+            wait = Math.max(wait, Math.max(globalBucket.nanosUntilAvailable(now), outbox.nanosUntilAvailable(now)));
+            if (wait > 0) {
+                minWait = Math.min(minWait, wait);
+                continue;
+            }
+
+            globalBucket.take(now);
+            outbox.take(now);
+            outbox.inFlight = true;
+            OutboundItem<?> item = outbox.items.poll();
+            queued.decrementAndGet();
+            inFlight.incrementAndGet();
+            if (item.attempts == 0) {
+                recordWait(now - item.enqueuedAt);
+            }
+            dispatched.add(outbox);
+            try {
+                senders.execute(() -> send(outbox, item));
+            } catch (RejectedExecutionException e) {
+                // Пул уже остановлен: возвращаем запрос в очередь, при остановке он уйдёт в dead letters
+                outbox.items.addFirst(item);
+                outbox.inFlight = false;
+                queued.incrementAndGet();
+                inFlight.decrementAndGet();
+                return minWait;
+            }
+        }
+
+        // Обслуженные чаты переносим в конец, чтобы остальные не голодали
+        for (ChatOutbox outbox : dispatched) {
+            outboxes.remove(outbox.chatId);
+            outboxes.put(outbox.chatId, outbox);
+        }
+        return minWait;
+    }
+
+    private <T> void send(ChatOutbox outbox, OutboundItem<T> item) {
+        T result = null;
+        Exception error = null;
+        try {
+            result = item.action.send();
+        } catch (Exception e) {
+            error = e;
+        }
+        item.attempts++;
+
+        boolean retry = false;
+        inFlight.decrementAndGet();
+        lock.lock();
+        try {
+            if (error != null) {
+                long delay = item.attempts < maxAttempts ? retryDelayNanos(error, item.attempts) : NO_RETRY;
+                if (delay != NO_RETRY) {
+                    // Возвращаем в голову очереди: следующие сообщения чата ждут, порядок не нарушается
+                    item.notBeforeNanos = System.nanoTime() + delay;
+                    outbox.items.addFirst(item);
+                    queued.incrementAndGet();
+                    retried.incrementAndGet();
+                    retry = true;
+                    logger.warn("🔁 Повтор отправки в чат {} через {} мс (попытка {}): {}",
+                            outbox.chatId, TimeUnit.NANOSECONDS.toMillis(delay), item.attempts, error.getMessage());
+                }
+            }
+            outbox.inFlight = false;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (error == null) {
+            sent.incrementAndGet();
+            item.future.complete(result);
+        } else if (!retry) {
+            failed.incrementAndGet();
+            logger.error("❌ Не удалось отправить запрос в чат {}: {}", outbox.chatId, error.getMessage());
+            deadLetter(outbox.chatId, item, error);
+            item.future.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Определяет задержку перед повтором.
+     * 429 - ровно retry_after от Telegram; 5xx и сетевые ошибки - экспоненциальный backoff с jitter;
+     * остальные ошибки (400, 403 и т.п.) не повторяем.
+     */
+    private long retryDelayNanos(Exception error, int attempts) {
+        if (error instanceof TelegramApiRequestException requestError && requestError.getErrorCode() != null) {
+            int code = requestError.getErrorCode();
+            if (code == 429) {
+                Integer retryAfter = requestError.getParameters() != null
+                        ? requestError.getParameters().getRetryAfter() : null;
+                return retryAfter != null ? TimeUnit.SECONDS.toNanos(retryAfter) : backoffNanos(attempts);
+            }
+            return code >= 500 ? backoffNanos(attempts) : NO_RETRY;
+        }
+
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return backoffNanos(attempts);
+            }
+        }
+        return NO_RETRY;
+    }
+
+    /**
+     * Экспоненциальная задержка с "equal jitter": половина фиксирована, половина случайна
+     */
+    private long backoffNanos(int attempts) {
+        long delay = Math.min(retryMaxNanos, retryBaseNanos << Math.min(attempts - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private void deadLetter(Long chatId, OutboundItem<?> item, Exception error) {
+        Integer errorCode = error instanceof TelegramApiRequestException requestError
+                ? requestError.getErrorCode() : null;
+        deadLettered.incrementAndGet();
+        deadLetterService.save(chatId, item.payload, errorCode, error.getMessage(), item.attempts);
+    }
+
+    private void recordWait(long waitNanos) {
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Очередь и лимиты одного чата
+     */
+    private class ChatOutbox {
+        private final long chatId;
+        private final Deque<OutboundItem<?>> items = new ArrayDeque<>();
+        private final TokenBucket chatBucket;
+        private final TokenBucket groupBucket;
+        private boolean inFlight;
+
+        ChatOutbox(long chatId) {
+            this.chatId = chatId;
+            this.chatBucket = new TokenBucket(chatBurst, chatPerSecond, SECOND_NANOS);
+            // Отрицательные ID в Telegram у групп, супергрупп и каналов
+            this.groupBucket = chatId < 0 ? new TokenBucket(groupPerMinute, groupPerMinute, MINUTE_NANOS) : null;
+        }
+
+        long nanosUntilAvailable(long now) {
+            long wait = chatBucket.nanosUntilAvailable(now);
+            if (groupBucket != null) {
+                wait = Math.max(wait, groupBucket.nanosUntilAvailable(now));
+            }
+            return wait;
+        }
+
+        void take(long now) {
+            chatBucket.take(now);
+            if (groupBucket != null) {
+                groupBucket.take(now);
+            }
+        }
+
+        // Пустую очередь можно удалить, когда лимиты полностью восстановились
+        boolean isIdle(long now) {
+            return !inFlight && chatBucket.isFull(now) && (groupBucket == null || groupBucket.isFull(now));
+        }
+    }
+
+    /**
+     * Элемент очереди: запрос и его будущий результат
+     */
+    private static class OutboundItem<T> {
+        private final SendAction<T> action;
+        private final String payload;
+        private final long enqueuedAt;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private int attempts;
+        private long notBeforeNanos;
+
+        OutboundItem(SendAction<T> action, String payload, long enqueuedAt) {
+            this.action = action;
+            this.payload = payload;
+            this.enqueuedAt = enqueuedAt;
+            this.notBeforeNanos = enqueuedAt;
+        }
+    }
+}
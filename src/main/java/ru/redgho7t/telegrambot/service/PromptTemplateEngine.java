@@ -0,0 +1,220 @@
+package ru.redgho7t.telegrambot.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Шаблоны запросов к AI: фраза-триггер в сообщении → префикс запроса.
+ * Фразы компилируются в префиксное дерево; в сообщении выбирается самое раннее вхождение,
+ * а среди вхождений с одной позиции - самое длинное. Результат не зависит от порядка шаблонов.
+ * Набор шаблонов можно заменить на лету: из JSON-файла (перечитывается при изменении) или через API.
+ */
+@Service
+public class PromptTemplateEngine {
+    private static final Logger logger = LoggerFactory.getLogger(PromptTemplateEngine.class);
+    private static final Gson GSON = new Gson();
+
+    private final Path templatesFile;
+    private volatile TemplateSet templateSet;
+    private volatile long loadedFileModified = -1;
+
+    public PromptTemplateEngine(@Value("${telegram.bot.prompt-templates.file:}") String templatesFile) {
+        this.templatesFile = templatesFile.isBlank() ? null : Path.of(templatesFile);
+        this.templateSet = TemplateSet.compile(defaultTemplates());
+        if (this.templatesFile != null) {
+            reloadFromFile();
+        }
+        logger.info("PromptTemplateEngine инициализирован: {} шаблонов", templateSet.size());
+    }
+
+    /**
+     * Применяет шаблон к сообщению
+     * @return префикс шаблона + текст после фразы (или всё сообщение, если после фразы пусто);
+     *         исходное сообщение, если ни одна фраза не найдена
+     */
+    public String apply(String messageText) {
+        return templateSet.apply(messageText);
+    }
+
+    /**
+     * Заменяет набор шаблонов
+     * @param templates фраза → префикс запроса
+     */
+    public void replaceTemplates(Map<String, String> templates) {
+        templateSet = TemplateSet.compile(templates);
+        logger.info("🔄 Набор шаблонов заменён: {} шаблонов", templateSet.size());
+    }
+
+    /**
+     * Возвращает текущий набор шаблонов
+     */
+    public Map<String, String> getTemplates() {
+        return templateSet.templates;
+    }
+
+    /**
+     * Перечитывает файл шаблонов, если он задан
+     * @return true, если набор загружен из файла
+     */
+    public boolean reloadFromFile() {
+        if (templatesFile == null) {
+            return false;
+        }
+        try (Reader reader = Files.newBufferedReader(templatesFile, StandardCharsets.UTF_8)) {
+            long modified = Files.getLastModifiedTime(templatesFile).toMillis();
+            Map<String, String> templates = GSON.fromJson(reader, new TypeToken<Map<String, String>>() {}.getType());
+            if (templates == null) {
+                throw new JsonParseException("Пустой файл шаблонов");
+            }
+            replaceTemplates(templates);
+            loadedFileModified = modified;
+            return true;
+        } catch (IOException | JsonParseException e) {
+            // Остаётся предыдущий рабочий набор
+            logger.error("❌ Не удалось загрузить шаблоны из {}: {}", templatesFile, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Проверка изменения файла шаблонов
+     */
+    @Scheduled(fixedDelayString = "${telegram.bot.prompt-templates.check-interval-ms:30000}")
+    public void checkTemplatesFile() {
+        if (templatesFile == null || !Files.exists(templatesFile)) {
+            return;
+        }
+        try {
+            if (Files.getLastModifiedTime(templatesFile).toMillis() != loadedFileModified) {
+                reloadFromFile();
+            }
+        } catch (IOException e) {
+            logger.warn("⚠️ Не удалось проверить файл шаблонов: {}", e.getMessage());
+        }
+    }
+
+    private static Map<String, String> defaultTemplates() {
+        Map<String, String> templates = new LinkedHashMap<>();
+        templates.put("привет", "Привет! Меня зовут AI Bot. Расскажи мне: ");
+        templates.put("hello", "Hello! I'm AI Bot. Tell me: ");
+        templates.put("помощь", "Как я могу помочь с вопросом: ");
+        templates.put("help", "How can I help you with: ");
+        templates.put("найди", "Найти информацию о: ");
+        templates.put("search", "Search for information about: ");
+        templates.put("что такое", "Что такое ");
+        templates.put("what is", "What is ");
+        templates.put("объясни", "Объясни ");
+        templates.put("explain", "Explain ");
+        templates.put("расскажи", "Расскажи о ");
+        templates.put("tell me", "Tell me about ");
+        templates.put("сравни", "Сравни ");
+        templates.put("compare", "Compare ");
+        templates.put("разница", "В чем разница между ");
+        templates.put("difference", "What's the difference between ");
+        return templates;
+    }
+
+    /**
+     * Неизменяемый скомпилированный набор шаблонов
+     */
+    private static final class TemplateSet {
+        private final Node root = new Node();
+        private final Map<String, String> templates;
+
+        private TemplateSet(Map<String, String> templates) {
+            this.templates = Collections.unmodifiableMap(new LinkedHashMap<>(templates));
+        }
+
+        static TemplateSet compile(Map<String, String> templates) {
+            TemplateSet set = new TemplateSet(templates);
+            for (Map.Entry<String, String> entry : templates.entrySet()) {
+                String phrase = entry.getKey().toLowerCase(Locale.ROOT);
+                if (phrase.isBlank()) {
+                    continue;
+                }
+                Node node = set.root;
+                for (int i = 0; i < phrase.length(); i++) {
+                    node = node.building.computeIfAbsent(phrase.charAt(i), c -> new Node());
+                }
+                node.phraseLength = phrase.length();
+                node.template = entry.getValue();
+            }
+            set.root.freeze();
+            return set;
+        }
+
+        int size() {
+            return templates.size();
+        }
+
+        String apply(String messageText) {
+            int length = messageText.length();
+            for (int start = 0; start < length; start++) {
+                Node node = root;
+                Node longest = null;
+                for (int i = start; i < length; i++) {
+                    node = node.child(Character.toLowerCase(messageText.charAt(i)));
+                    if (node == null) {
+                        break;
+                    }
+                    if (node.template != null) {
+                        longest = node;
+                    }
+                }
+                if (longest != null) {
+                    String rest = messageText.substring(start + longest.phraseLength).trim();
+                    return rest.isEmpty() ? longest.template + messageText : longest.template + rest;
+                }
+            }
+            return messageText;
+        }
+    }
+
+    /**
+     * Узел дерева. После сборки переходы хранятся в отсортированных массивах:
+     * поиск перехода - бинарный поиск без упаковки символов.
+     */
+    private static final class Node {
+        private Map<Character, Node> building = new TreeMap<>();
+        private char[] keys;
+        private Node[] children;
+        private String template;
+        private int phraseLength;
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        void freeze() {
+            keys = new char[building.size()];
+            children = new Node[building.size()];
+            int i = 0;
+            for (Map.Entry<Character, Node> entry : building.entrySet()) {
+                keys[i] = entry.getKey();
+                children[i] = entry.getValue();
+                entry.getValue().freeze();
+                i++;
+            }
+            building = null;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package ru.redgho7t.telegrambot.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
+import ru.redgho7t.telegrambot.utils.MessageTemplate;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -19,6 +20,21 @@ public class RouletteService {
     private static final int MIN_NUMBER = 1;
     private static final int MAX_NUMBER = 777;
 
+    // Сообщения с результатом разобраны заранее: при вызове подставляется только число
+    private static final String RESULT_HEADER = "🎰 **Рулетка удачи!**\n\n🔢 **Ваше число: {}**\n\n";
+    private static final MessageTemplate RESULT_JACKPOT = MessageTemplate.compile(RESULT_HEADER
+            + "🎉 **ДЖЕКПОТ!** 🎉\nПоздравляем! Вы выиграли максимальный приз!\n💎 Невероятная удача! ✨");
+    private static final MessageTemplate RESULT_EXCELLENT = MessageTemplate.compile(RESULT_HEADER
+            + "⭐ **Отличный результат!** ⭐\nВам очень повезло!\n🍀 Удача определенно на вашей стороне!");
+    private static final MessageTemplate RESULT_GOOD = MessageTemplate.compile(RESULT_HEADER
+            + "👍 **Хороший результат!** 👍\nНеплохая удача!\n🎲 Попробуйте ещё раз!");
+    private static final MessageTemplate RESULT_AVERAGE = MessageTemplate.compile(RESULT_HEADER
+            + "🎯 **Средний результат**\nНе расстраивайтесь!\n🔄 Следующий раз повезёт больше!");
+    private static final MessageTemplate RESULT_BEGINNER = MessageTemplate.compile(RESULT_HEADER
+            + "🌟 **Начальная удача**\nЭто только начало!\n💪 Продолжайте играть!");
+    private static final MessageTemplate RESULT_RETRY = MessageTemplate.compile(RESULT_HEADER
+            + "🍀 **Попробуйте ещё раз!** 🍀\nУдача любит настойчивых!\n🎰 Крутите рулетку снова!");
+
     private final Random random;
     private final List<RouletteResult> history;
 
@@ -52,39 +68,14 @@ public class RouletteService {
      */
     public String formatResult(RouletteResult result) {
         int number = result.getNumber();
-
-        StringBuilder message = new StringBuilder();
-        message.append("🎰 **Рулетка удачи!**\n\n");
-        message.append(String.format("🔢 **Ваше число: %d**\n\n", number));
-
         // Добавляем специальное сообщение в зависимости от числа
-        if (number == 777) {
-            message.append("🎉 **ДЖЕКПОТ!** 🎉\n");
-            message.append("Поздравляем! Вы выиграли максимальный приз!\n");
-            message.append("💎 Невероятная удача! ✨");
-        } else if (number >= 700) {
-            message.append("⭐ **Отличный результат!** ⭐\n");
-            message.append("Вам очень повезло!\n");
-            message.append("🍀 Удача определенно на вашей стороне!");
-        } else if (number >= 500) {
-            message.append("👍 **Хороший результат!** 👍\n");
-            message.append("Неплохая удача!\n");
-            message.append("🎲 Попробуйте ещё раз!");
-        } else if (number >= 300) {
-            message.append("🎯 **Средний результат**\n");
-            message.append("Не расстраивайтесь!\n");
-            message.append("🔄 Следующий раз повезёт больше!");
-        } else if (number >= 100) {
-            message.append("🌟 **Начальная удача**\n");
-            message.append("Это только начало!\n");
-            message.append("💪 Продолжайте играть!");
-        } else {
-            message.append("🍀 **Попробуйте ещё раз!** 🍀\n");
-            message.append("Удача любит настойчивых!\n");
-            message.append("🎰 Крутите рулетку снова!");
-        }
-
-        return message.toString();
+        MessageTemplate template = number == 777 ? RESULT_JACKPOT
+                : number >= 700 ? RESULT_EXCELLENT
+                : number >= 500 ? RESULT_GOOD
+                : number >= 300 ? RESULT_AVERAGE
+                : number >= 100 ? RESULT_BEGINNER
+                : RESULT_RETRY;
+        return template.render(Integer.toString(number));
     }
 
     /**
@@ -121,24 +112,24 @@ public class RouletteService {
 
         double average = (double) sum / total;
 
-        StringBuilder stats = new StringBuilder();
+        StringBuilder stats = new StringBuilder(512);
         stats.append("📊 **Статистика рулетки**\n\n");
-        stats.append(String.format("🎲 **Всего игр:** %d\n", total));
-        stats.append(String.format("📈 **Среднее число:** %.1f\n", average));
-        stats.append(String.format("🔺 **Максимум:** %d\n", max));
-        stats.append(String.format("🔻 **Минимум:** %d\n", min));
+        stats.append("🎲 **Всего игр:** ").append(total).append('\n');
+        stats.append("📈 **Среднее число:** ").append(MessageTemplate.fixed(average, 1)).append('\n');
+        stats.append("🔺 **Максимум:** ").append(max).append('\n');
+        stats.append("🔻 **Минимум:** ").append(min).append('\n');
         stats.append("\n**Распределение результатов:**\n");
 
         if (jackpots > 0) {
-            stats.append(String.format("🎉 **Джекпоты (777):** %d\n", jackpots));
+            stats.append("🎉 **Джекпоты (777):** ").append(jackpots).append('\n');
         }
-        stats.append(String.format("⭐ **Отличные (700+):** %d\n", excellent));
-        stats.append(String.format("👍 **Хорошие (500+):** %d\n", good));
-        stats.append(String.format("🎯 **Остальные:** %d\n", total - jackpots - excellent - good));
+        stats.append("⭐ **Отличные (700+):** ").append(excellent).append('\n');
+        stats.append("👍 **Хорошие (500+):** ").append(good).append('\n');
+        stats.append("🎯 **Остальные:** ").append(total - jackpots - excellent - good).append('\n');
 
         if (jackpots > 0) {
             double jackpotChance = (double) jackpots / total * 100;
-            stats.append(String.format("\n🎰 **Шанс джекпота:** %.2f%%", jackpotChance));
+            stats.append("\n🎰 **Шанс джекпота:** ").append(MessageTemplate.fixed(jackpotChance, 2)).append('%');
         }
 
         return stats.toString();
@@ -0,0 +1,358 @@
+package ru.redgho7t.telegrambot.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import ru.redgho7t.telegrambot.utils.ResponseTemplates;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Локальное преобразование Markdown (как пишет Gemini и наши шаблоны) в HTML для Telegram.
+ * Результат всегда корректен: весь текст экранируется, каждый открытый тег закрывается
+ * в том же вызове, а непарные маркеры остаются обычным текстом. Поэтому сообщение не нужно
+ * отправлять "на пробу" и повторять без форматирования после ошибки разбора.
+ *
+ * Поддерживается: **жирный**, __жирный__, *курсив*, _курсив_, ~~зачёркнутый~~, `код`,
+ * блоки ```кода```, [ссылки](https://...), заголовки # и маркированные списки * / -.
+ */
+@Service
+public class TelegramFormatter {
+    private static final Logger logger = LoggerFactory.getLogger(TelegramFormatter.class);
+
+    public static final String PARSE_MODE = "HTML";
+
+    // Готовая разметка для постоянных ответов бота: текст → HTML
+    private final Map<String, String> prerendered;
+
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong prerenderedHits = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    public TelegramFormatter(ResponseTemplates responseTemplates) {
+        Map<String, String> html = new HashMap<>();
+        for (String message : responseTemplates.getStaticMessages()) {
+            html.put(message, render(message));
+        }
+        this.prerendered = Map.copyOf(html);
+        logger.info("TelegramFormatter инициализирован: Markdown → {}, заранее отрисовано ответов: {}",
+                PARSE_MODE, prerendered.size());
+    }
+
+    /**
+     * Преобразует Markdown в HTML Telegram
+     */
+    public String toHtml(String markdown) {
+        rendered.incrementAndGet();
+        String html = prerendered.get(markdown);
+        if (html != null) {
+            prerenderedHits.incrementAndGet();
+            return html;
+        }
+        return render(markdown);
+    }
+
+    /**
+     * Telegram всё же отклонил разметку и сообщение ушло без форматирования
+     */
+    public void recordFallback() {
+        fallbacks.incrementAndGet();
+    }
+
+    /**
+     * Возвращает метрики форматирования
+     */
+    public Map<String, Object> getMetrics() {
+        long renderedCount = rendered.get();
+        long fallbackCount = fallbacks.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("parse_mode", PARSE_MODE);
+        metrics.put("rendered", renderedCount);
+        metrics.put("prerendered_hits", prerenderedHits.get());
+        metrics.put("fallbacks", fallbackCount);
+        metrics.put("fallback_rate", renderedCount == 0 ? 0.0 : (double) fallbackCount / renderedCount);
+        return metrics;
+    }
+
+    static String render(String markdown) {
+        StringBuilder out = new StringBuilder(markdown.length() + 64);
+        int length = markdown.length();
+        int lineStart = 0;
+        boolean firstLine = true;
+
+        while (lineStart <= length) {
+            int lineEnd = markdown.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = length;
+            }
+            if (!firstLine) {
+                out.append('\n');
+            }
+            firstLine = false;
+
+            int indent = skipSpaces(markdown, lineStart, lineEnd);
+            if (markdown.startsWith("```", indent)) {
+                lineStart = codeBlock(markdown, indent + 3, lineEnd, out);
+                continue;
+            }
+            line(markdown, lineStart, indent, lineEnd, out);
+            lineStart = lineEnd + 1;
+        }
+        return out.toString();
+    }
+
+    /**
+     * Блок кода от открывающих ``` до закрывающих (или до конца текста - например, если
+     * блок разрезан на части сообщения)
+     * @return начало строки после блока
+     */
+    private static int codeBlock(String s, int langStart, int lineEnd, StringBuilder out) {
+        String language = s.substring(langStart, lineEnd).trim();
+        int contentStart = Math.min(lineEnd + 1, s.length());
+        int close = s.indexOf("```", contentStart);
+        int contentEnd = close < 0 ? s.length() : close;
+        // Перевод строки перед закрывающими ``` в блок не входит
+        if (contentEnd > contentStart && s.charAt(contentEnd - 1) == '\n') {
+            contentEnd--;
+        }
+
+        out.append("<pre>");
+        if (isLanguage(language)) {
+            out.append("<code class=\"language-").append(language).append("\">");
+        } else {
+            out.append("<code>");
+        }
+        escape(s, contentStart, contentEnd, out);
+        out.append("</code></pre>");
+
+        if (close < 0) {
+            return s.length() + 1;
+        }
+        int after = s.indexOf('\n', close + 3);
+        if (after < 0) {
+            return s.length() + 1;
+        }
+        // Текст после закрывающих ``` на той же строке
+        if (after > close + 3) {
+            out.append('\n');
+            inline(s, close + 3, after, out, false);
+        }
+        return after + 1;
+    }
+
+    /**
+     * Строка вне блока кода: заголовок, элемент списка или обычный текст
+     */
+    private static void line(String s, int lineStart, int indent, int lineEnd, StringBuilder out) {
+        int level = 0;
+        while (indent + level < lineEnd && s.charAt(indent + level) == '#') {
+            level++;
+        }
+        if (level > 0 && level <= 6 && indent + level < lineEnd && s.charAt(indent + level) == ' ') {
+            out.append("<b>");
+            inline(s, skipSpaces(s, indent + level, lineEnd), lineEnd, out, false);
+            out.append("</b>");
+            return;
+        }
+
+        if (indent + 1 < lineEnd && (s.charAt(indent) == '*' || s.charAt(indent) == '-')
+                && s.charAt(indent + 1) == ' ') {
+            escape(s, lineStart, indent, out);
+            out.append("• ");
+            inline(s, skipSpaces(s, indent + 1, lineEnd), lineEnd, out, false);
+            return;
+        }
+        inline(s, lineStart, lineEnd, out, false);
+    }
+
+    /**
+     * Строчная разметка в [from, to). Каждый открытый тег закрывается здесь же,
+     * маркер без пары выводится как текст.
+     */
+    private static void inline(String s, int from, int to, StringBuilder out, boolean inLink) {
+        int i = from;
+        while (i < to) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\' -> {
+                    if (i + 1 < to && isPunctuation(s.charAt(i + 1))) {
+                        escape(s.charAt(i + 1), out);
+                        i += 2;
+                        continue;
+                    }
+                }
+                case '`' -> {
+                    int close = s.indexOf('`', i + 1);
+                    if (close > i + 1 && close < to) {
+                        out.append("<code>");
+                        escape(s, i + 1, close, out);
+                        out.append("</code>");
+                        i = close + 1;
+                        continue;
+                    }
+                }
+                case '*', '_' -> {
+                    int next = emphasis(s, i, to, c, out, inLink);
+                    if (next > i) {
+                        i = next;
+                        continue;
+                    }
+                }
+                case '~' -> {
+                    if (s.startsWith("~~", i)) {
+                        int close = s.indexOf("~~", i + 2);
+                        if (close > i + 2 && close + 2 <= to) {
+                            out.append("<s>");
+                            inline(s, i + 2, close, out, inLink);
+                            out.append("</s>");
+                            i = close + 2;
+                            continue;
+                        }
+                    }
+                }
+                case '[' -> {
+                    int next = inLink ? -1 : link(s, i, to, out);
+                    if (next > i) {
+                        i = next;
+                        continue;
+                    }
+                }
+                default -> { }
+            }
+            escape(c, out);
+            i++;
+        }
+    }
+
+    /**
+     * Жирный (двойной маркер) или курсив (одиночный)
+     * @return позиция после закрывающего маркера или -1, если пары нет
+     */
+    private static int emphasis(String s, int i, int to, char marker, StringBuilder out, boolean inLink) {
+        boolean strong = i + 1 < to && s.charAt(i + 1) == marker;
+        int width = strong ? 2 : 1;
+        int contentStart = i + width;
+        if (contentStart >= to || Character.isWhitespace(s.charAt(contentStart))) {
+            return -1;
+        }
+        // snake_case и 2*3*4 - не разметка
+        if (!strong && i > 0 && Character.isLetterOrDigit(s.charAt(i - 1))) {
+            return -1;
+        }
+
+        int close = findCloser(s, contentStart, to, marker, width);
+        if (close < 0) {
+            return -1;
+        }
+        String tag = strong ? "b" : "i";
+        out.append('<').append(tag).append('>');
+        inline(s, contentStart, close, out, inLink);
+        out.append("</").append(tag).append('>');
+        return close + width;
+    }
+
+    private static int findCloser(String s, int from, int to, char marker, int width) {
+        for (int j = from + 1; j + width <= to; j++) {
+            char c = s.charAt(j);
+            if (c == '`') {
+                // Маркеры внутри кода не считаются
+                int codeEnd = s.indexOf('`', j + 1);
+                if (codeEnd > 0 && codeEnd < to) {
+                    j = codeEnd;
+                }
+                continue;
+            }
+            if (c != marker) {
+                continue;
+            }
+            int run = 1;
+            while (j + run < to && s.charAt(j + run) == marker) {
+                run++;
+            }
+            if (Character.isWhitespace(s.charAt(j - 1))) {
+                j += run - 1;
+                continue;
+            }
+            if (width == 2 && run >= 2) {
+                return j;
+            }
+            if (width == 1 && run == 1) {
+                if (marker == '_' && j + 1 < to && Character.isLetterOrDigit(s.charAt(j + 1))) {
+                    continue;
+                }
+                return j;
+            }
+            j += run - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * [текст](url) со ссылкой http(s) или tg
+     * @return позиция после ссылки или -1
+     */
+    private static int link(String s, int i, int to, StringBuilder out) {
+        int textEnd = s.indexOf("](", i + 1);
+        if (textEnd < 0 || textEnd + 2 >= to) {
+            return -1;
+        }
+        int urlEnd = s.indexOf(')', textEnd + 2);
+        if (urlEnd < 0 || urlEnd >= to) {
+            return -1;
+        }
+        String url = s.substring(textEnd + 2, urlEnd).trim();
+        if (!(url.startsWith("http://") || url.startsWith("https://") || url.startsWith("tg://"))
+                || url.indexOf(' ') >= 0) {
+            return -1;
+        }
+        out.append("<a href=\"");
+        escape(url, 0, url.length(), out);
+        out.append("\">");
+        inline(s, i + 1, textEnd, out, true);
+        out.append("</a>");
+        return urlEnd + 1;
+    }
+
+    private static void escape(String s, int from, int to, StringBuilder out) {
+        for (int i = from; i < to; i++) {
+            escape(s.charAt(i), out);
+        }
+    }
+
+    private static void escape(char c, StringBuilder out) {
+        switch (c) {
+            case '<' -> out.append("&lt;");
+            case '>' -> out.append("&gt;");
+            case '&' -> out.append("&amp;");
+            case '"' -> out.append("&quot;");
+            default -> out.append(c);
+        }
+    }
+
+    private static boolean isLanguage(String language) {
+        if (language.isEmpty() || language.length() > 32) {
+            return false;
+        }
+        for (int i = 0; i < language.length(); i++) {
+            char c = language.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '+' || c == '#' || c == '-' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c < 128 && !Character.isLetterOrDigit(c) && !Character.isWhitespace(c);
+    }
+
+    private static int skipSpaces(String s, int i, int end) {
+        while (i < end && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,203 @@
+package ru.redgho7t.telegrambot.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Диспетчер обновлений Telegram.
+ * Обновления одного чата выполняются строго по порядку, разные чаты - параллельно
+ * на ограниченном пуле потоков. У каждого чата своя очередь, которую в один момент
+ * времени разбирает не более одного потока.
+ */
+@Service
+public class UpdateDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(UpdateDispatcher.class);
+
+    // Сколько обновлений чата обрабатываем подряд, прежде чем уступить поток другим чатам
+    private static final int DRAIN_BATCH_SIZE = 16;
+    private static final int TOP_CHATS_IN_METRICS = 5;
+
+    private final ThreadPoolExecutor workers;
+    private final Map<Long, ChatQueue> chatQueues = new ConcurrentHashMap<>();
+    private final int maxQueuePerChat;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public UpdateDispatcher(@Value("${telegram.bot.dispatcher.threads:0}") int threads,
+                            @Value("${telegram.bot.dispatcher.max-queue-per-chat:100}") int maxQueuePerChat) {
+        // По умолчанию потоков больше, чем ядер: обработчики ждут сеть (Gemini, Telegram, БД)
+        int poolSize = threads > 0 ? threads : Math.max(4, Runtime.getRuntime().availableProcessors() * 4);
+        this.maxQueuePerChat = maxQueuePerChat;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "update-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers.allowCoreThreadTimeOut(true);
+
+        logger.info("UpdateDispatcher инициализирован: потоков={}, лимит очереди чата={}", poolSize, maxQueuePerChat);
+    }
+
+    /**
+     * Ставит задачу в очередь чата.
+     * @param chatId ID чата (null - общая очередь для обновлений без чата)
+     * @param task задача обработки обновления
+     * @return false, если очередь чата переполнена и задача отброшена
+     */
+    public boolean dispatch(Long chatId, Runnable task) {
+        long key = chatId != null ? chatId : 0L;
+        boolean[] accepted = {false};
+
+        // compute атомарен для ключа: добавление задачи не пересекается с удалением пустой очереди
+        ChatQueue queue = chatQueues.compute(key, (id, existing) -> {
+            ChatQueue current = existing != null ? existing : new ChatQueue(id);
+            if (current.depth.get() < maxQueuePerChat) {
+                current.tasks.add(task);
+                current.depth.incrementAndGet();
+                accepted[0] = true;
+            }
+            return current;
+        });
+
+        if (!accepted[0]) {
+            rejected.incrementAndGet();
+            logger.warn("⚠️ Очередь чата {} переполнена ({}), обновление отброшено", key, maxQueuePerChat);
+            return false;
+        }
+
+        submitted.incrementAndGet();
+        schedule(queue);
+        return true;
+    }
+
+    /**
+     * Возвращает глубину очереди конкретного чата
+     */
+    public int getQueueDepth(Long chatId) {
+        ChatQueue queue = chatQueues.get(chatId != null ? chatId : 0L);
+        return queue != null ? queue.depth.get() : 0;
+    }
+
+    /**
+     * Возвращает метрики диспетчера
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        int queued = 0;
+        int maxDepth = 0;
+        for (ChatQueue queue : chatQueues.values()) {
+            int depth = queue.depth.get();
+            queued += depth;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        Map<String, Integer> topChats = new LinkedHashMap<>();
+        chatQueues.values().stream()
+                .filter(queue -> queue.depth.get() > 0)
+                .sorted(Comparator.comparingInt((ChatQueue queue) -> queue.depth.get()).reversed())
+                .limit(TOP_CHATS_IN_METRICS)
+                .forEach(queue -> topChats.put(String.valueOf(queue.chatId), queue.depth.get()));
+
+        metrics.put("workers", workers.getMaximumPoolSize());
+        metrics.put("active_workers", workers.getActiveCount());
+        metrics.put("active_chats", chatQueues.size());
+        metrics.put("queued_updates", queued);
+        metrics.put("max_chat_queue_depth", maxDepth);
+        metrics.put("top_chat_queues", topChats);
+        metrics.put("submitted", submitted.get());
+        metrics.put("completed", completed.get());
+        metrics.put("failed", failed.get());
+        metrics.put("rejected", rejected.get());
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        logger.info("🛑 Остановка UpdateDispatcher, в очередях: {}", getMetrics().get("queued_updates"));
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private void schedule(ChatQueue queue) {
+        if (queue.running.compareAndSet(false, true)) {
+            workers.execute(() -> drain(queue));
+        }
+    }
+
+    /**
+     * Разбирает очередь чата. Одновременно работает не более одного drain на чат,
+     * поэтому порядок обновлений внутри чата сохраняется.
+     */
+    private void drain(ChatQueue queue) {
+        int processed = 0;
+        Runnable task;
+        try {
+            while (processed < DRAIN_BATCH_SIZE && (task = queue.tasks.poll()) != null) {
+                queue.depth.decrementAndGet();
+                processed++;
+                try {
+                    task.run();
+                    completed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    logger.error("❌ Ошибка при обработке обновления чата {}: {}", queue.chatId, e.getMessage(), e);
+                }
+            }
+        } finally {
+            // Даже после Error чат освобождается, иначе его очередь больше никогда не разбиралась бы
+            queue.running.set(false);
+            if (!queue.tasks.isEmpty()) {
+                schedule(queue);
+            } else {
+                chatQueues.computeIfPresent(queue.chatId, (id, current) -> current.isIdle() ? null : current);
+            }
+        }
+    }
+
+    /**
+     * Очередь обновлений одного чата
+     */
+    private static class ChatQueue {
+        private final long chatId;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        ChatQueue(long chatId) {
+            this.chatId = chatId;
+        }
+
+        boolean isIdle() {
+            return !running.get() && tasks.isEmpty();
+        }
+    }
+}
@@ -9,8 +9,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import ru.redgho7t.telegrambot.utils.MessageTemplate;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -24,12 +27,26 @@ public class WeatherService {
     private static final String API_URL = "https://api.openweathermap.org/data/2.5/weather";
     private static final String DEFAULT_CITY = "Moscow"; // Город по умолчанию
 
+    // Шаблоны ответа разобраны один раз
+    private static final MessageTemplate WEATHER_REPORT = MessageTemplate.compile("""
+            🌤️ **Погода в {}**
+
+            {} **{}**
+            🌡️ **Температура:** {}°C
+            🤔 **Ощущается как:** {}°C
+            💧 **Влажность:** {}%
+            📊 **Давление:** {} мм рт.ст.
+            {}
+            📅 *Обновлено: {}*""");
+    private static final MessageTemplate WIND_LINE = MessageTemplate.compile("💨 **Ветер:** {} м/с\n");
+    private static final DateTimeFormatter UPDATED_AT_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
+
     @Value("${telegram.bot.weather-api-key:}")
     private String apiKey;
 
     private final OkHttpClient httpClient;
-    private String cachedWeather;
-    private long lastUpdateTime = 0;
+    private volatile String cachedWeather;
+    private volatile long lastUpdateTime = 0;
     private static final long CACHE_DURATION = 30 * 60 * 1000; // 30 минут
 
     public WeatherService() {
@@ -151,28 +168,17 @@ public class WeatherService {
             String weatherEmoji = getWeatherEmoji(icon);
 
             // Форматируем ответ
-            StringBuilder result = new StringBuilder();
-            result.append(String.format("🌤️ **Погода в %s**\n\n",
-                    city.substring(0, 1).toUpperCase() + city.substring(1).toLowerCase()));
-
-            result.append(String.format("%s **%s**\n", weatherEmoji,
-                    description.substring(0, 1).toUpperCase() + description.substring(1)));
-
-            result.append(String.format("🌡️ **Температура:** %.1f°C\n", temp));
-            result.append(String.format("🤔 **Ощущается как:** %.1f°C\n", feelsLike));
-            result.append(String.format("💧 **Влажность:** %d%%\n", humidity));
-            result.append(String.format("📊 **Давление:** %d мм рт.ст.\n",
-                    (int) (pressure * 0.75))); // Перевод из гПа в мм рт.ст.
-
-            if (windSpeed > 0) {
-                result.append(String.format("💨 **Ветер:** %.1f м/с\n", windSpeed));
-            }
-
-            result.append(String.format("\n📅 *Обновлено: %s*",
-                    java.time.LocalDateTime.now().format(
-                            java.time.format.DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm"))));
-
-            return result.toString();
+            String windLine = windSpeed > 0 ? WIND_LINE.render(MessageTemplate.fixed(windSpeed, 1)) : "";
+            return WEATHER_REPORT.render(
+                    city.substring(0, 1).toUpperCase() + city.substring(1).toLowerCase(),
+                    weatherEmoji,
+                    description.substring(0, 1).toUpperCase() + description.substring(1),
+                    MessageTemplate.fixed(temp, 1),
+                    MessageTemplate.fixed(feelsLike, 1),
+                    Integer.toString(humidity),
+                    Integer.toString((int) (pressure * 0.75)), // Перевод из гПа в мм рт.ст.
+                    windLine,
+                    LocalDateTime.now().format(UPDATED_AT_FORMAT));
 
         } catch (Exception e) {
             logger.error("Ошибка при парсинге ответа API: {}", e.getMessage());
@@ -0,0 +1,168 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Адаптивный лимит одновременных запросов (AIMD).
+ * Успешный ответ увеличивает лимит примерно на 1 за "круг" запросов, перегрузка (429/503)
+ * уменьшает лимит мультипликативно. Задержка на лимит не влияет: у Gemini она растёт
+ * с длиной ответа и числом thinking-токенов и сама по себе перегрузку не означает.
+ * Запросы сверх лимита ждут в ограниченной очереди, по переполнению или таймауту - отклоняются.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * Результат запроса, выполненного под разрешением
+     */
+    public enum Outcome {
+        /** Успешный ответ */
+        SUCCESS,
+        /** Сервис сообщил о перегрузке (429/503) */
+        OVERLOADED,
+        /** Прочая ошибка - лимит не меняется */
+        IGNORED
+    }
+
+    private static final double BACKOFF_RATIO = 0.5;
+    // Окно, за которое "забывается" минимальная задержка
+    private static final long MIN_LATENCY_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long queueTimeoutMs;
+
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private long minLatencySetAt;
+
+    private long acquired;
+    private long shed;
+    private long overloaded;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue, long queueTimeoutMs) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.maxQueue = maxQueue;
+        this.queueTimeoutMs = queueTimeoutMs;
+    }
+
+    /**
+     * Запрашивает разрешение. Future завершается, когда запрос можно выполнять;
+     * при перегрузке - исключением RejectedExecutionException.
+     * После завершения запроса обязательно вызвать release.
+     */
+    public CompletableFuture<Void> acquire() {
+        CompletableFuture<Void> waiter;
+        synchronized (this) {
+            if (inFlight < (int) limit && waiters.isEmpty()) {
+                inFlight++;
+                acquired++;
+                return CompletableFuture.completedFuture(null);
+            }
+            if (waiters.size() >= maxQueue) {
+                shed++;
+                return CompletableFuture.failedFuture(
+                        new RejectedExecutionException("Очередь запросов к AI переполнена"));
+            }
+            waiter = new CompletableFuture<>();
+            waiters.addLast(waiter);
+        }
+
+        waiter.orTimeout(queueTimeoutMs, TimeUnit.MILLISECONDS).exceptionally(error -> {
+            synchronized (this) {
+                if (waiters.remove(waiter)) {
+                    shed++;
+                }
+            }
+            return null;
+        });
+        return waiter.handle((ignored, error) -> {
+            if (error != null) {
+                throw new RejectedExecutionException("Превышено время ожидания очереди запросов к AI", error);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Возвращает разрешение и корректирует лимит по результату запроса
+     * @param latencyNanos длительность запроса (только для метрик); отрицательное значение - неизвестна
+     */
+    public void release(Outcome outcome, long latencyNanos) {
+        synchronized (this) {
+            inFlight--;
+            switch (outcome) {
+                case SUCCESS -> onSuccess(latencyNanos);
+                case OVERLOADED -> {
+                    overloaded++;
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                }
+                case IGNORED -> { }
+            }
+        }
+        grantWaiters();
+    }
+
+    /**
+     * Возвращает метрики лимитера
+     */
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("limit", (int) limit);
+        metrics.put("in_flight", inFlight);
+        metrics.put("queued", waiters.size());
+        metrics.put("min_latency_ms", minLatencyNanos == Long.MAX_VALUE
+                ? null : TimeUnit.NANOSECONDS.toMillis(minLatencyNanos));
+        metrics.put("acquired", acquired);
+        metrics.put("shed", shed);
+        metrics.put("overloaded", overloaded);
+        return metrics;
+    }
+
+    private void onSuccess(long latencyNanos) {
+        if (latencyNanos >= 0) {
+            long now = System.nanoTime();
+            if (latencyNanos < minLatencyNanos || now - minLatencySetAt > MIN_LATENCY_WINDOW_NANOS) {
+                minLatencyNanos = latencyNanos;
+                minLatencySetAt = now;
+            }
+        }
+        // Увеличиваем, только если лимит действительно использовался
+        if (inFlight + 1 >= (int) limit) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * Выдаёт освободившиеся разрешения ожидающим. Future завершаются вне блокировки.
+     */
+    private void grantWaiters() {
+        while (true) {
+            CompletableFuture<Void> waiter;
+            synchronized (this) {
+                if (inFlight >= (int) limit || waiters.isEmpty()) {
+                    return;
+                }
+                waiter = waiters.pollFirst();
+                inFlight++;
+                acquired++;
+            }
+            if (!waiter.complete(null)) {
+                // Ожидающий уже отвалился по таймауту - разрешение возвращаем
+                synchronized (this) {
+                    inFlight--;
+                    acquired--;
+                }
+            }
+        }
+    }
+}
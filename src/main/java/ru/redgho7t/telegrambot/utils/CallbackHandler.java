@@ -0,0 +1,20 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Метод-обработчик нажатия кнопки. Данные callback совпадают со значением целиком,
+ * а при prefix = true - начинаются с него (например, "horoscope_").
+ * Метод без параметров или с одним String - данные после префикса.
+ * @see HandlerRegistry
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CallbackHandler {
+    String[] value();
+
+    boolean prefix() default false;
+}
@@ -0,0 +1,18 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Метод-обработчик команды бота. Команды и их псевдонимы указываются вместе со слэшем,
+ * в нижнем регистре: {@code @CommandHandler({"/joke", "/анекдот"})}.
+ * Метод без параметров или с одним String - текст после команды.
+ * @see HandlerRegistry
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CommandHandler {
+    String[] value();
+}
@@ -0,0 +1,188 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Реестр обработчиков команд и callback, собранный из аннотаций {@link CommandHandler}
+ * и {@link CallbackHandler} на методах объекта.
+ * Разбор выполняется один раз; команда и точные данные callback находятся одним поиском в хэш-таблице,
+ * префиксы callback - по одному поиску на каждую встречающуюся длину префикса.
+ * У каждого обработчика свой таймер задержки.
+ * @param <R> тип результата обработчиков
+ */
+public class HandlerRegistry<R> {
+
+    private final Class<R> resultType;
+    private final Map<String, Handler> commands;
+    private final Map<String, Handler> callbacks;
+    private final Map<String, Handler> callbackPrefixes;
+    // Длины префиксов по убыванию: выигрывает самый длинный
+    private final int[] prefixLengths;
+    private final List<Handler> handlers;
+
+    private HandlerRegistry(Class<R> resultType, Map<String, Handler> commands, Map<String, Handler> callbacks,
+                            Map<String, Handler> callbackPrefixes, List<Handler> handlers) {
+        this.resultType = resultType;
+        this.commands = Map.copyOf(commands);
+        this.callbacks = Map.copyOf(callbacks);
+        this.callbackPrefixes = Map.copyOf(callbackPrefixes);
+        int[] lengths = callbackPrefixes.keySet().stream().mapToInt(String::length).distinct().sorted().toArray();
+        this.prefixLengths = new int[lengths.length];
+        for (int i = 0; i < lengths.length; i++) {
+            prefixLengths[i] = lengths[lengths.length - 1 - i];
+        }
+        this.handlers = List.copyOf(handlers);
+    }
+
+    /**
+     * Собирает реестр из аннотированных методов target
+     * @param lookup MethodHandles.lookup() из класса target: по нему ищутся методы (в том числе private)
+     * @throws IllegalStateException при неверной сигнатуре или повторной регистрации
+     */
+    public static <R> HandlerRegistry<R> scan(Object target, MethodHandles.Lookup lookup, Class<R> resultType) {
+        Map<String, Handler> commands = new HashMap<>();
+        Map<String, Handler> callbacks = new HashMap<>();
+        Map<String, Handler> prefixes = new HashMap<>();
+        List<Handler> handlers = new ArrayList<>();
+
+        for (Method method : lookup.lookupClass().getDeclaredMethods()) {
+            CommandHandler command = method.getAnnotation(CommandHandler.class);
+            CallbackHandler callback = method.getAnnotation(CallbackHandler.class);
+            if (command == null && callback == null) {
+                continue;
+            }
+            Handler handler = new Handler(method.getName(), bind(target, lookup, method, resultType));
+            handlers.add(handler);
+
+            if (command != null) {
+                for (String name : command.value()) {
+                    register(commands, name.toLowerCase(Locale.ROOT), handler, "команда");
+                }
+            }
+            if (callback != null) {
+                for (String data : callback.value()) {
+                    register(callback.prefix() ? prefixes : callbacks, data, handler, "callback");
+                }
+            }
+        }
+        return new HandlerRegistry<>(resultType, commands, callbacks, prefixes, handlers);
+    }
+
+    /**
+     * Выполняет обработчик команды
+     * @param text текст сообщения, начинающийся с "/"; суффикс @botname и регистр не важны
+     * @return результат или null, если команда не зарегистрирована
+     */
+    public R dispatchCommand(String text) {
+        int end = 1;
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+            end++;
+        }
+        int mention = text.indexOf('@');
+        int nameEnd = mention > 0 && mention < end ? mention : end;
+
+        Handler handler = commands.get(text.substring(0, nameEnd).toLowerCase(Locale.ROOT));
+        return handler == null ? null : invoke(handler, text.substring(end).trim());
+    }
+
+    /**
+     * Выполняет обработчик нажатия кнопки
+     * @return результат или null, если обработчика нет
+     */
+    public R dispatchCallback(String data) {
+        Handler handler = callbacks.get(data);
+        if (handler != null) {
+            return invoke(handler, "");
+        }
+        for (int length : prefixLengths) {
+            if (data.length() >= length) {
+                handler = callbackPrefixes.get(data.substring(0, length));
+                if (handler != null) {
+                    return invoke(handler, data.substring(length));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Метрики по обработчикам: число вызовов, ошибки и задержки
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Handler handler : handlers) {
+            Map<String, Object> handlerMetrics = new LinkedHashMap<>(handler.latency.getMetrics());
+            handlerMetrics.put("errors", handler.errors.get());
+            metrics.put(handler.name, handlerMetrics);
+        }
+        return metrics;
+    }
+
+    private R invoke(Handler handler, String argument) {
+        long start = System.nanoTime();
+        try {
+            return resultType.cast((Object) handler.method.invokeExact(argument));
+        } catch (RuntimeException | Error e) {
+            handler.errors.incrementAndGet();
+            throw e;
+        } catch (Throwable e) {
+            handler.errors.incrementAndGet();
+            throw new IllegalStateException("Ошибка обработчика " + handler.name, e);
+        } finally {
+            handler.latency.recordSince(start);
+        }
+    }
+
+    /**
+     * Приводит метод к виду (String) -> Object
+     */
+    private static MethodHandle bind(Object target, MethodHandles.Lookup lookup, Method method, Class<?> resultType) {
+        if (!resultType.isAssignableFrom(method.getReturnType())) {
+            throw new IllegalStateException("Обработчик " + method.getName() + " должен возвращать "
+                    + resultType.getSimpleName());
+        }
+        Class<?>[] parameters = method.getParameterTypes();
+        if (parameters.length > 1 || (parameters.length == 1 && parameters[0] != String.class)) {
+            throw new IllegalStateException("Обработчик " + method.getName()
+                    + " должен быть без параметров или с одним String");
+        }
+        try {
+            MethodHandle handle = lookup.unreflect(method).bindTo(target);
+            if (parameters.length == 0) {
+                handle = MethodHandles.dropArguments(handle, 0, String.class);
+            }
+            return handle.asType(MethodType.methodType(Object.class, String.class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Нет доступа к обработчику " + method.getName(), e);
+        }
+    }
+
+    private static void register(Map<String, Handler> map, String key, Handler handler, String kind) {
+        Handler existing = map.putIfAbsent(key, handler);
+        if (existing != null) {
+            throw new IllegalStateException(kind + " " + key + " уже обрабатывается методом " + existing.name);
+        }
+    }
+
+    private static final class Handler {
+        private final String name;
+        private final MethodHandle method;
+        private final LatencyRecorder latency = new LatencyRecorder();
+        private final AtomicLong errors = new AtomicLong();
+
+        Handler(String name, MethodHandle method) {
+            this.name = name;
+            this.method = method;
+        }
+    }
+}
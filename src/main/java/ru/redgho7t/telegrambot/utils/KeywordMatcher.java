@@ -0,0 +1,200 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.util.Map;
+
+/**
+ * Скомпилированный поиск ключевых слов в сообщении.
+ * Все слова-триггеры один раз укладываются в хэш-таблицу с открытой адресацией;
+ * сообщение классифицируется за один проход без выделения памяти:
+ * хэш слова считается по ходу чтения символов, сравнение идёт прямо с исходным текстом.
+ */
+public final class KeywordMatcher {
+
+    /**
+     * Реакции на ключевые слова. Порядок внутри группы - приоритет для одного слова.
+     */
+    public enum Trigger {
+        // Дополнительные функции: срабатывают по первому такому слову в сообщении
+        JOKE, ROULETTE, WEATHER, ZODIAC_SIGN, HOROSCOPE_MENU,
+        // Специальные реакции: проверяются, только если функций в сообщении нет
+        BOT, POPI, JABI, JAVA, GO;
+
+        public boolean isFunction() {
+            return ordinal() <= HOROSCOPE_MENU.ordinal();
+        }
+    }
+
+    /**
+     * Результат: реакция и слово-триггер в каноническом виде (как в словаре)
+     */
+    public record Match(Trigger trigger, String word) {
+    }
+
+    private static final int FUNCTION_MASK = maskOf(Trigger.JOKE, Trigger.ROULETTE, Trigger.WEATHER,
+            Trigger.ZODIAC_SIGN, Trigger.HOROSCOPE_MENU);
+    private static final int SPECIAL_MASK = maskOf(Trigger.BOT, Trigger.POPI, Trigger.JAVA, Trigger.GO);
+    private static final int JABI_MASK = maskOf(Trigger.JABI);
+
+    private final String[] words;
+    private final int[] hashes;
+    private final int[] masks;
+    private final Match[][] matches;
+    private final int tableMask;
+
+    /**
+     * @param triggerWords слова в нижнем регистре для каждой реакции; слово может относиться к нескольким
+     */
+    public KeywordMatcher(Map<Trigger, String[]> triggerWords) {
+        int count = triggerWords.values().stream().mapToInt(list -> list.length).sum();
+        int capacity = Integer.highestOneBit(Math.max(4, count * 4) - 1) << 1;
+        this.words = new String[capacity];
+        this.hashes = new int[capacity];
+        this.masks = new int[capacity];
+        this.matches = new Match[capacity][];
+        this.tableMask = capacity - 1;
+
+        for (Map.Entry<Trigger, String[]> entry : triggerWords.entrySet()) {
+            for (String word : entry.getValue()) {
+                int slot = insert(word);
+                masks[slot] |= 1 << entry.getKey().ordinal();
+            }
+        }
+        // Готовые результаты, чтобы не создавать их при каждом совпадении
+        for (int slot = 0; slot < capacity; slot++) {
+            if (words[slot] != null) {
+                matches[slot] = new Match[Trigger.values().length];
+                for (Trigger trigger : Trigger.values()) {
+                    if ((masks[slot] & (1 << trigger.ordinal())) != 0) {
+                        matches[slot][trigger.ordinal()] = new Match(trigger, words[slot]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Определяет реакцию на сообщение по прежним правилам приоритета:
+     * 1. первое слово-функция в сообщении (в одном слове: анекдот > рулетка > погода > знак > гороскоп);
+     * 2. иначе первое слово сообщения - обращение к боту или "попи";
+     * 3. иначе JABI, если оно есть где угодно в сообщении;
+     * 4. иначе первое слово из bot/popi/java/go (в одном слове в этом порядке).
+     * Словом считается непрерывная последовательность букв.
+     * @return совпадение или null
+     */
+    public Match match(CharSequence text) {
+        int firstWordSlot = -1;
+        int jabiSlot = -1;
+        int specialSlot = -1;
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int cp = Character.codePointAt(text, i);
+            if (!Character.isLetter(cp)) {
+                i += Character.charCount(cp);
+                continue;
+            }
+
+            // Читаем слово, попутно считая хэш в нижнем регистре
+            int start = i;
+            int hash = 0;
+            while (i < length) {
+                cp = Character.codePointAt(text, i);
+                if (!Character.isLetter(cp)) {
+                    break;
+                }
+                hash = 31 * hash + Character.toLowerCase(cp);
+                i += Character.charCount(cp);
+            }
+
+            int slot = find(text, start, i, hash);
+            if (slot < 0) {
+                continue;
+            }
+            int mask = masks[slot];
+            if ((mask & FUNCTION_MASK) != 0) {
+                return pick(slot, mask & FUNCTION_MASK);
+            }
+            if (start == 0) {
+                firstWordSlot = slot;
+            }
+            if (jabiSlot < 0 && (mask & JABI_MASK) != 0) {
+                jabiSlot = slot;
+            }
+            if (specialSlot < 0 && (mask & SPECIAL_MASK) != 0) {
+                specialSlot = slot;
+            }
+        }
+
+        if (firstWordSlot >= 0) {
+            int firstMask = masks[firstWordSlot] & maskOf(Trigger.BOT, Trigger.POPI);
+            if (firstMask != 0) {
+                return pick(firstWordSlot, firstMask);
+            }
+        }
+        if (jabiSlot >= 0) {
+            return pick(jabiSlot, JABI_MASK);
+        }
+        if (specialSlot >= 0) {
+            return pick(specialSlot, masks[specialSlot] & SPECIAL_MASK);
+        }
+        return null;
+    }
+
+    private Match pick(int slot, int mask) {
+        return matches[slot][Integer.numberOfTrailingZeros(mask)];
+    }
+
+    private int find(CharSequence text, int start, int end, int hash) {
+        for (int slot = spread(hash) & tableMask; words[slot] != null; slot = (slot + 1) & tableMask) {
+            if (hashes[slot] == hash && regionEquals(words[slot], text, start, end)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int insert(String word) {
+        int hash = word.codePoints().reduce(0, (h, cp) -> 31 * h + cp);
+        for (int slot = spread(hash) & tableMask; ; slot = (slot + 1) & tableMask) {
+            if (words[slot] == null) {
+                words[slot] = word;
+                hashes[slot] = hash;
+                return slot;
+            }
+            if (words[slot].equals(word)) {
+                return slot;
+            }
+        }
+    }
+
+    private static boolean regionEquals(String word, CharSequence text, int start, int end) {
+        int j = 0;
+        int i = start;
+        while (i < end) {
+            if (j >= word.length()) {
+                return false;
+            }
+            int cp = Character.codePointAt(text, i);
+            int wordCp = word.codePointAt(j);
+            if (Character.toLowerCase(cp) != wordCp) {
+                return false;
+            }
+            i += Character.charCount(cp);
+            j += Character.charCount(wordCp);
+        }
+        return j == word.length();
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int maskOf(Trigger... triggers) {
+        int mask = 0;
+        for (Trigger trigger : triggers) {
+            mask |= 1 << trigger.ordinal();
+        }
+        return mask;
+    }
+}
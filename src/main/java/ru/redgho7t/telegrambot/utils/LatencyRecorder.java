@@ -0,0 +1,158 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма задержек с логарифмическими корзинами (8 корзин на удвоение, погрешность ~6%).
+ * Запись без блокировок; перцентили считаются по текущему и предыдущему окну,
+ * так что старые значения постепенно забываются. Окно 0 - накопление за всё время.
+ */
+public class LatencyRecorder {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long windowNanos;
+    private volatile Window current;
+    private volatile Window previous;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public LatencyRecorder() {
+        this(0);
+    }
+
+    /**
+     * @param windowMillis длительность окна; 0 - без окон
+     */
+    public LatencyRecorder(long windowMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.current = new Window(System.nanoTime());
+    }
+
+    /**
+     * Записывает длительность одного вызова
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        Window window = current;
+        if (windowNanos > 0 && System.nanoTime() - window.startNanos > windowNanos) {
+            window = rotate(window);
+        }
+        window.counts.incrementAndGet(bucketOf(nanos));
+        window.count.incrementAndGet();
+
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Записывает время с момента startNanos (System.nanoTime())
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Перцентиль за последние одно-два окна
+     * @param quantile от 0 до 1
+     * @return оценка сверху в наносекундах или -1, если данных нет
+     */
+    public long percentileNanos(double quantile) {
+        Window latest = current;
+        Window older = previous;
+        long total = latest.count.get() + (older != null ? older.count.get() : 0);
+        if (total == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += latest.counts.get(bucket) + (older != null ? older.counts.get(bucket) : 0);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(bucket), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * Количество значений в текущем и предыдущем окне
+     */
+    public long recentCount() {
+        Window older = previous;
+        return current.count.get() + (older != null ? older.count.get() : 0);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Метрики в миллисекундах
+     */
+    public Map<String, Object> getMetrics() {
+        long calls = count.get();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("count", calls);
+        metrics.put("mean_ms", calls == 0 ? 0.0 : totalNanos.get() / 1e6 / calls);
+        metrics.put("p50_ms", toMillis(percentileNanos(0.50)));
+        metrics.put("p95_ms", toMillis(percentileNanos(0.95)));
+        metrics.put("p99_ms", toMillis(percentileNanos(0.99)));
+        metrics.put("max_ms", maxNanos.get() / 1e6);
+        return metrics;
+    }
+
+    private synchronized Window rotate(Window seen) {
+        if (current == seen) {
+            previous = seen;
+            current = new Window(System.nanoTime());
+        }
+        return current;
+    }
+
+    private static Double toMillis(long nanos) {
+        return nanos < 0 ? null : nanos / 1e6;
+    }
+
+    /**
+     * Корзина: первые SUB_BUCKETS значений - точно, дальше по SUB_BUCKETS корзин на каждую степень двойки
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static final class Window {
+        private final long startNanos;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+
+        Window(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+}
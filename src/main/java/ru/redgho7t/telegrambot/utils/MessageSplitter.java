@@ -1,114 +1,326 @@
 package ru.redgho7t.telegrambot.utils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
-* Утилита для разбивки длинных сообщений на части
-*/
+ * Утилита для разбивки длинных сообщений на части.
+ * Работает по смещениям в исходном CharSequence за один проход на часть, копирует текст
+ * только при сборке итоговых строк. Режет по границе абзаца, строки, предложения или слова,
+ * не разрывая суррогатные пары и открытую Markdown-разметку (*, _, `, ```, [текст](url)).
+ */
 public class MessageSplitter {
 
-private static final int MAX_MESSAGE_LENGTH = 4096;
-private static final String PART_INDICATOR = "\n\n📄 Часть %d из %d";
+    public static final int MAX_MESSAGE_LENGTH = 4096;
+    // Запас под "📄 Часть N из M"
+    private static final int PART_LIMIT = MAX_MESSAGE_LENGTH - 50;
+    private static final String PART_PREFIX = "\n\n📄 Часть ";
+    private static final String PART_SEPARATOR = " из ";
 
-/**
- * Разбивает длинное сообщение на части с сохранением форматирования
- * @param text исходный текст
- * @return список частей сообщения
- */
-public static List<String> splitMessage(String text) {
-    List<String> parts = new ArrayList<>();
+    // Классы границ в порядке предпочтения
+    private static final int PARAGRAPH = 0;
+    private static final int LINE = 1;
+    private static final int SENTENCE = 2;
+    private static final int WORD = 3;
+
+    private static final ThreadLocal<char[]> SCRATCH =
+            ThreadLocal.withInitial(() -> new char[MAX_MESSAGE_LENGTH + 3]);
 
-    // Если сообщение помещается в лимит
-    if (text.length() <= MAX_MESSAGE_LENGTH) {
-        parts.add(text);
+    // Открытые элементы разметки
+    private static final int PRE = 1;
+    private static final int CODE = 1 << 1;
+    private static final int BOLD = 1 << 2;
+    private static final int ITALIC = 1 << 3;
+    private static final int LINK_TEXT = 1 << 4;
+    private static final int LINK_URL = 1 << 5;
+
+    /**
+     * Разбивает длинное сообщение на части с сохранением форматирования
+     * @param text исходный текст
+     * @return список частей сообщения (с нумерацией, если частей несколько)
+     */
+    public static List<String> splitMessage(String text) {
+        List<String> parts = new ArrayList<>();
+        if (text.length() <= MAX_MESSAGE_LENGTH) {
+            parts.add(text);
+            return parts;
+        }
+
+        int[] offsets = splitOffsets(text, PART_LIMIT);
+        int count = offsets.length / 2;
+        String total = Integer.toString(count);
+        for (int i = 0; i < count; i++) {
+            int start = offsets[2 * i];
+            int end = offsets[2 * i + 1];
+            if (count == 1) {
+                parts.add(text.substring(start, end));
+                continue;
+            }
+            parts.add(text.substring(start, end) + PART_PREFIX + (i + 1) + PART_SEPARATOR + total);
+        }
         return parts;
     }
 
-    // Разбиваем по абзацам
-    String[] paragraphs = text.split("\n\n");
-    StringBuilder currentPart = new StringBuilder();
-
-    for (String paragraph : paragraphs) {
-        // Если даже один абзац слишком длинный
-        if (paragraph.length() > MAX_MESSAGE_LENGTH - 100) {
-            // Сохраняем текущую часть
-            if (currentPart.length() > 0) {
-                parts.add(currentPart.toString().trim());
-                currentPart = new StringBuilder();
+    /**
+     * Границы частей без копирования текста
+     * @param limit максимальная длина части в UTF-16 символах
+     * @return пары [начало, конец) для каждой части; пробелы по краям частей отброшены
+     */
+    public static int[] splitOffsets(CharSequence text, int limit) {
+        int[] offsets = new int[8];
+        int count = 0;
+        int start = skipWhitespace(text, 0);
+        while (start < text.length()) {
+            int end = nextBoundary(text, start, limit);
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
             }
-            // Разбиваем длинный абзац по предложениям
-            parts.addAll(splitLongParagraph(paragraph));
-            continue;
+            offsets[count++] = start;
+            offsets[count++] = trimEnd(text, start, end);
+            start = skipWhitespace(text, end);
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    /**
+     * Конец части, начинающейся с from, не длиннее limit.
+     * Предпочтение: абзац > строка > конец предложения > пробел, причём граница вне разметки
+     * и не ближе половины лимита. Если такой нет - любая граница, затем жёсткий разрез.
+     */
+    public static int nextBoundary(CharSequence text, int from, int limit) {
+        int length = text.length();
+        if (length - from <= limit) {
+            return length;
         }
 
-        // Проверяем, поместится ли абзац в текущую часть
-        if (currentPart.length() + paragraph.length() + 2 <= MAX_MESSAGE_LENGTH - 50) {
-            if (currentPart.length() > 0) {
-                currentPart.append("\n\n");
+        // Окно части копируется в буфер потока: сканирование массива заметно быстрее charAt.
+        // Позиции ниже отсчитываются от from; +3 символа - чтобы заглянуть за границу лимита
+        int n = Math.min(length - from, limit + 3);
+        char[] buf = window(text, from, n);
+        int max = limit;
+        int minCut = limit / 2;
+
+        // Последние границы каждого типа после minCut: вне разметки и без учёта разметки
+        int paragraph = -1, line = -1, sentence = -1, word = -1;
+        int anyParagraph = -1, anyLine = -1, anySentence = -1, anyWord = -1;
+        // Запасные границы до minCut (тип не важен)
+        int early = -1, anyEarly = -1;
+
+        int open = 0;
+        for (int i = 0; i <= max; i++) {
+            char c = buf[i];
+            // Символы старше '`' не влияют ни на границы, ни на разметку - быстрый путь для букв
+            if (c > '`') {
+                continue;
             }
-            currentPart.append(paragraph);
-        } else {
-            // Сохраняем текущую часть и начинаем новую
-            if (currentPart.length() > 0) {
-                parts.add(currentPart.toString().trim());
+
+            // Граница "перед символом i": часть [0, i)
+            if (c == ' ' || c == '\n' || c == '\t' || c == '\r') {
+                if (i < minCut) {
+                    if (i > 0) {
+                        anyEarly = i;
+                        early = open == 0 ? i : early;
+                    }
+                    continue;
+                }
+                switch (boundaryType(buf, n, i, c)) {
+                    case PARAGRAPH -> {
+                        anyParagraph = i;
+                        paragraph = open == 0 ? i : paragraph;
+                    }
+                    case LINE -> {
+                        anyLine = i;
+                        line = open == 0 ? i : line;
+                    }
+                    case SENTENCE -> {
+                        anySentence = i;
+                        sentence = open == 0 ? i : sentence;
+                    }
+                    default -> {
+                        anyWord = i;
+                        word = open == 0 ? i : word;
+                    }
+                }
+                continue;
+            }
+            if (c < '(' || i == max) {
+                continue;
+            }
+
+            // Состояние разметки Telegram Markdown (legacy)
+            if ((open & PRE) != 0) {
+                if (isFence(buf, n, i)) {
+                    open &= ~PRE;
+                    i += 2;
+                }
+            } else if ((open & CODE) != 0) {
+                if (c == '`') {
+                    open &= ~CODE;
+                }
+            } else if ((open & LINK_URL) != 0) {
+                if (c == ')') {
+                    open &= ~LINK_URL;
+                }
+            } else {
+                switch (c) {
+                    case '\\' -> i++;
+                    case '`' -> {
+                        if (isFence(buf, n, i)) {
+                            open |= PRE;
+                            i += 2;
+                        } else {
+                            open |= CODE;
+                        }
+                    }
+                    case '*' -> open ^= BOLD;
+                    case '_' -> open ^= ITALIC;
+                    case '[' -> open |= LINK_TEXT;
+                    case ']' -> {
+                        if ((open & LINK_TEXT) != 0) {
+                            open &= ~LINK_TEXT;
+                            if (buf[i + 1] == '(') {
+                                open |= LINK_URL;
+                                i++;
+                            }
+                        }
+                    }
+                    default -> { }
+                }
             }
-            currentPart = new StringBuilder(paragraph);
         }
-    }
 
-    // Добавляем последнюю часть
-    if (currentPart.length() > 0) {
-        parts.add(currentPart.toString().trim());
+        int cut = pick(paragraph, line, sentence, word);
+        if (cut < 0) {
+            cut = pick(anyParagraph, anyLine, anySentence, anyWord);
+        }
+        if (cut < 0) {
+            cut = early >= 0 ? early : anyEarly;
+        }
+        if (cut < 0) {
+            // Сплошной текст без пробелов: жёсткий разрез, не внутри суррогатной пары
+            cut = Character.isLowSurrogate(buf[max]) && max > 1 ? max - 1 : max;
+        }
+        return from + cut;
     }
 
-    return addPartNumbers(parts);
-}
+    /**
+     * Инкрементальная разбивка потокового текста.
+     * Часть считается завершённой, когда после её начала накопилось больше limit символов.
+     */
+    public static final class Feed {
+        private final StringBuilder text = new StringBuilder();
+        private final int limit;
+        private int partStart;
 
-/**
- * Разбивает длинный абзац по предложениям
- */
-private static List<String> splitLongParagraph(String paragraph) {
-    List<String> parts = new ArrayList<>();
-    String[] sentences = paragraph.split("(?<=[.!?])\\s+");
-    StringBuilder currentPart = new StringBuilder();
-
-    for (String sentence : sentences) {
-        if (currentPart.length() + sentence.length() + 1 <= MAX_MESSAGE_LENGTH - 50) {
-            if (currentPart.length() > 0) {
-                currentPart.append(" ");
+        public Feed(int limit) {
+            this.limit = limit;
+        }
+
+        public Feed append(CharSequence chunk) {
+            text.append(chunk);
+            if (partStart == 0) {
+                partStart = skipWhitespace(text, 0);
             }
-            currentPart.append(sentence);
-        } else {
-            if (currentPart.length() > 0) {
-                parts.add(currentPart.toString().trim());
+            return this;
+        }
+
+        /**
+         * Завершает очередную часть, если текста для неё уже достаточно
+         * @return конец части или -1; начало части - partStart() до вызова
+         */
+        public int nextCut() {
+            if (text.length() - partStart <= limit) {
+                return -1;
             }
-            currentPart = new StringBuilder(sentence);
+            int end = nextBoundary(text, partStart, limit);
+            partStart = skipWhitespace(text, end);
+            return end;
+        }
+
+        /**
+         * Начало текущей (незавершённой) части
+         */
+        public int partStart() {
+            return partStart;
+        }
+
+        /**
+         * Весь накопленный текст
+         */
+        public CharSequence text() {
+            return text;
+        }
+
+        public int length() {
+            return text.length();
+        }
+
+        public boolean isEmpty() {
+            return text.length() == 0;
         }
     }
 
-    if (currentPart.length() > 0) {
-        parts.add(currentPart.toString().trim());
+    /**
+     * Тип границы перед пробельным символом в позиции i
+     */
+    private static int boundaryType(char[] buf, int n, int i, char c) {
+        if (c == '\n') {
+            return i + 1 < n && buf[i + 1] == '\n' ? PARAGRAPH : LINE;
+        }
+        char previous = buf[i - 1];
+        return previous == '.' || previous == '!' || previous == '?' ? SENTENCE : WORD;
     }
 
-    return parts;
-}
+    private static boolean isFence(char[] buf, int n, int i) {
+        return i + 2 < n && buf[i] == '`' && buf[i + 1] == '`' && buf[i + 2] == '`';
+    }
 
-/**
- * Добавляет нумерацию частей
- */
-private static List<String> addPartNumbers(List<String> parts) {
-    if (parts.size() <= 1) {
-        return parts;
+    /**
+     * Копирует [from, from + n) в переиспользуемый буфер потока
+     */
+    private static char[] window(CharSequence text, int from, int n) {
+        char[] buf = SCRATCH.get();
+        if (buf.length < n) {
+            buf = new char[n];
+            SCRATCH.set(buf);
+        }
+        if (text instanceof String string) {
+            string.getChars(from, from + n, buf, 0);
+        } else if (text instanceof StringBuilder builder) {
+            builder.getChars(from, from + n, buf, 0);
+        } else {
+            for (int i = 0; i < n; i++) {
+                buf[i] = text.charAt(from + i);
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * Первая найденная граница по предпочтению
+     */
+    private static int pick(int paragraph, int line, int sentence, int word) {
+        if (paragraph >= 0) {
+            return paragraph;
+        }
+        if (line >= 0) {
+            return line;
+        }
+        return sentence >= 0 ? sentence : word;
     }
 
-    List<String> numberedParts = new ArrayList<>();
-    for (int i = 0; i < parts.size(); i++) {
-        String part = parts.get(i);
-        String indicator = String.format(PART_INDICATOR, i + 1, parts.size());
-        numberedParts.add(part + indicator);
+    private static int skipWhitespace(CharSequence text, int i) {
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
     }
 
-    return numberedParts;
-}
+    private static int trimEnd(CharSequence text, int start, int end) {
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
 }
@@ -0,0 +1,99 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Заранее разобранный шаблон сообщения с подстановками {}.
+ * Разбор выполняется один раз при создании; подстановка - это одна строка нужного размера
+ * без повторного разбора формата, Formatter и промежуточных строк (в отличие от String.format).
+ */
+public final class MessageTemplate {
+    private static final String PLACEHOLDER = "{}";
+
+    private final String[] literals;
+    private final int literalLength;
+
+    private MessageTemplate(String[] literals) {
+        this.literals = literals;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Разбирает шаблон; каждое {} - место подстановки
+     */
+    public static MessageTemplate compile(String pattern) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int index;
+        while ((index = pattern.indexOf(PLACEHOLDER, start)) >= 0) {
+            parts.add(pattern.substring(start, index));
+            start = index + PLACEHOLDER.length();
+        }
+        parts.add(pattern.substring(start));
+        return new MessageTemplate(parts.toArray(new String[0]));
+    }
+
+    public int argumentCount() {
+        return literals.length - 1;
+    }
+
+    public String render(String a) {
+        checkArguments(1);
+        return literals[0] + a + literals[1];
+    }
+
+    public String render(String a, String b) {
+        checkArguments(2);
+        return literals[0] + a + literals[1] + b + literals[2];
+    }
+
+    public String render(String a, String b, String c) {
+        checkArguments(3);
+        return literals[0] + a + literals[1] + b + literals[2] + c + literals[3];
+    }
+
+    /**
+     * Подстановка произвольного числа значений
+     */
+    public String render(String... values) {
+        checkArguments(values.length);
+        int length = literalLength;
+        for (String value : values) {
+            length += value.length();
+        }
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < values.length; i++) {
+            result.append(literals[i]).append(values[i]);
+        }
+        return result.append(literals[values.length]).toString();
+    }
+
+    /**
+     * Число с фиксированным количеством знаков после точки, как %.Nf в Locale.ROOT.
+     * Округление HALF_UP от кратчайшего десятичного представления double, как у Formatter,
+     * а не от двоичного значения: 2.675 при двух знаках даёт 2.68
+     */
+    public static String fixed(double value, int scale) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return Double.toString(value);
+        }
+        BigDecimal rounded = BigDecimal.valueOf(value).setScale(scale, RoundingMode.HALF_UP);
+        // BigDecimal не различает -0, а Formatter печатает знак: -0.04 -> "-0.0"
+        String sign = rounded.signum() == 0 && (value < 0 || 1 / value < 0) ? "-" : "";
+        return sign + rounded.toPlainString();
+    }
+
+    private void checkArguments(int count) {
+        if (count != literals.length - 1) {
+            throw new IllegalArgumentException("Шаблон ожидает " + (literals.length - 1)
+                    + " значений, передано " + count);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Мультиномиальный наивный байесовский классификатор коротких текстов.
+ * Признаки - слова и символьные триграммы, хэшированные в таблицу фиксированного размера:
+ * словарь не хранится, память постоянна, классификация - один проход по тексту.
+ * Модель неизменяема; переобучение создаёт новый экземпляр.
+ * @param <L> метки классов
+ */
+public final class NaiveBayesClassifier<L extends Enum<L>> {
+    private static final int FEATURE_BITS = 14;
+    private static final int FEATURES = 1 << FEATURE_BITS;
+    // Сглаживание Лапласа
+    private static final float ALPHA = 0.5f;
+    private static final int WORD_SEED = 0x5bd1e995;
+
+    private final L[] labels;
+    private final float[] logPriors;
+    private final float[][] logLikelihoods;
+    // Признаки, встречавшиеся в обучающих примерах класса (битовая карта)
+    private final long[][] seen;
+    private final int samples;
+
+    /**
+     * Обучающий пример
+     */
+    public record Sample<L>(String text, L label) {
+    }
+
+    /**
+     * Ответ: наиболее вероятный класс, его апостериорная вероятность
+     * и доля признаков текста, знакомых этому классу по обучению.
+     * На коротких текстах из незнакомых слов вероятность бывает высокой случайно - покрытие это показывает.
+     */
+    public record Prediction<L>(L label, double probability, double coverage) {
+    }
+
+    private NaiveBayesClassifier(L[] labels, float[] logPriors, float[][] logLikelihoods, long[][] seen, int samples) {
+        this.labels = labels;
+        this.logPriors = logPriors;
+        this.logLikelihoods = logLikelihoods;
+        this.seen = seen;
+        this.samples = samples;
+    }
+
+    public static <L extends Enum<L>> NaiveBayesClassifier<L> train(Class<L> labelType, List<Sample<L>> samples) {
+        L[] labels = labelType.getEnumConstants();
+        long[] documents = new long[labels.length];
+        long[] totals = new long[labels.length];
+        int[][] counts = new int[labels.length][FEATURES];
+
+        for (Sample<L> sample : samples) {
+            int label = sample.label().ordinal();
+            documents[label]++;
+            totals[label] += forEachFeature(sample.text(), counts[label]);
+        }
+
+        float[] logPriors = new float[labels.length];
+        float[][] logLikelihoods = new float[labels.length][FEATURES];
+        long[][] seen = new long[labels.length][FEATURES >> 6];
+        for (int c = 0; c < labels.length; c++) {
+            // Класс без примеров получает минимальный, но не нулевой приор
+            logPriors[c] = (float) Math.log((documents[c] + ALPHA) / (samples.size() + ALPHA * labels.length));
+            double denominator = totals[c] + (double) ALPHA * FEATURES;
+            for (int f = 0; f < FEATURES; f++) {
+                logLikelihoods[c][f] = (float) Math.log((counts[c][f] + ALPHA) / denominator);
+                if (counts[c][f] > 0) {
+                    seen[c][f >> 6] |= 1L << f;
+                }
+            }
+        }
+        return new NaiveBayesClassifier<>(labels, logPriors, logLikelihoods, seen, samples.size());
+    }
+
+    public Prediction<L> classify(String text) {
+        double[] scores = new double[labels.length];
+        for (int c = 0; c < labels.length; c++) {
+            scores[c] = logPriors[c];
+        }
+        int[] features = features(text);
+        for (int feature : features) {
+            for (int c = 0; c < labels.length; c++) {
+                scores[c] += logLikelihoods[c][feature];
+            }
+        }
+
+        int best = 0;
+        for (int c = 1; c < labels.length; c++) {
+            if (scores[c] > scores[best]) {
+                best = c;
+            }
+        }
+        // Softmax относительно лучшего - без переполнения
+        double sum = 0;
+        for (double score : scores) {
+            sum += Math.exp(score - scores[best]);
+        }
+        int known = 0;
+        for (int feature : features) {
+            if ((seen[best][feature >> 6] & (1L << feature)) != 0) {
+                known++;
+            }
+        }
+        double coverage = features.length == 0 ? 0.0 : (double) known / features.length;
+        return new Prediction<>(labels[best], 1.0 / sum, coverage);
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Точность и полнота по каждому классу на отложенной выборке
+     */
+    public Map<String, Object> evaluate(List<Sample<L>> heldOut) {
+        Class<L> labelType = labels[0].getDeclaringClass();
+        Map<L, int[]> stats = new EnumMap<>(labelType);
+        for (L label : labels) {
+            // true positives, predicted, actual
+            stats.put(label, new int[3]);
+        }
+        int correct = 0;
+        for (Sample<L> sample : heldOut) {
+            L predicted = classify(sample.text()).label();
+            stats.get(predicted)[1]++;
+            stats.get(sample.label())[2]++;
+            if (predicted == sample.label()) {
+                stats.get(predicted)[0]++;
+                correct++;
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("held_out", heldOut.size());
+        report.put("accuracy", heldOut.isEmpty() ? null : (double) correct / heldOut.size());
+        Map<String, Object> perClass = new LinkedHashMap<>();
+        for (L label : labels) {
+            int[] s = stats.get(label);
+            Map<String, Object> classReport = new LinkedHashMap<>();
+            classReport.put("support", s[2]);
+            classReport.put("precision", s[1] == 0 ? null : (double) s[0] / s[1]);
+            classReport.put("recall", s[2] == 0 ? null : (double) s[0] / s[2]);
+            perClass.put(label.name().toLowerCase(Locale.ROOT), classReport);
+        }
+        report.put("classes", perClass);
+        return report;
+    }
+
+    /**
+     * Хэши признаков текста: слова целиком и триграммы символов слова с границами
+     */
+    static int[] features(String text) {
+        int[] result = new int[16];
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            // Слово с пробелами по краям: " слово " → " сл", "сло", ..., "во "
+            int wordHash = WORD_SEED;
+            char a = 0;
+            char b = ' ';
+            boolean full = false;
+            while (true) {
+                boolean inWord = i < length && Character.isLetterOrDigit(text.charAt(i));
+                char c = inWord ? normalize(text.charAt(i)) : ' ';
+                if (count + 2 > result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                if (full) {
+                    result[count++] = bucket((a * 31 + b) * 31 + c);
+                }
+                if (!inWord) {
+                    result[count++] = bucket(wordHash);
+                    break;
+                }
+                wordHash = wordHash * 31 + c;
+                a = b;
+                b = c;
+                full = true;
+                i++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int forEachFeature(String text, int[] counts) {
+        int[] features = features(text);
+        for (int feature : features) {
+            counts[feature]++;
+        }
+        return features.length;
+    }
+
+    private static char normalize(char c) {
+        char lower = Character.toLowerCase(c);
+        return lower == 'ё' ? 'е' : lower;
+    }
+
+    private static int bucket(int hash) {
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (FEATURES - 1);
+    }
+}
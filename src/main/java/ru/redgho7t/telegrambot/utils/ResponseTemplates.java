@@ -1,11 +1,29 @@
 package ru.redgho7t.telegrambot.utils;
 
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
 /**
  * Класс с шаблонами ответов для бота
  * ОБНОВЛЁН: Добавлены шаблоны для новых функций (анекдоты, погода, гороскопы, рулетка)
+ * Один общий экземпляр; все ответы - неизменяемые константы, которые можно отрисовать заранее.
  */
+@Component
 public class ResponseTemplates {
 
+    /**
+     * Все ответы без параметров - для заранее подготовленной разметки
+     */
+    public List<String> getStaticMessages() {
+        return List.of(getStartMessage(), getHelpMessage(), getAboutMessage(), getModelsMessage(),
+                getMainMenuMessage(), getJokeErrorMessage(), getWeatherErrorMessage(), getRouletteStartMessage(),
+                getBotResponseMessage(), getPopiMessage(), getJavaMessage(), getGoMessage(), getJabiMessage(),
+                getUnknownCommandMessage(), getApiErrorMessage(), getCreatorInfoMessage(), getBackToMainMessage(),
+                getGroupWelcomeMessage(), getNoPermissionsMessage(), getRateLimitMessage(), getGreetingMessage(),
+                getThanksMessage(), getAckMessage());
+    }
+
     /**
      * Приветственное сообщение при команде /start
      */
@@ -52,6 +70,7 @@ public class ResponseTemplates {
         /weather, /погода - Прогноз погоды
         /horoscope, /гороскоп - Случайный гороскоп
         /lucky, /рулетка - Рулетка удачи (1-777)
+        /ask, /спроси - Подробный ответ на сложный вопрос
         
         **Как задавать вопросы:**
         • Просто напишите ваш вопрос
@@ -220,6 +239,13 @@ public class ResponseTemplates {
         return "🎰 **Крутим рулетку удачи!**\n\nПриготовьтесь... Ваше число: ";
     }
 
+    /**
+     * Сообщение перед анимацией рулетки
+     */
+    public String getRouletteStartMessage() {
+        return "🎰 **Запускаем рулетку удачи!**\n\nКрутим... 🎲";
+    }
+
     /**
      * Сообщения для разных результатов рулетки
      */
@@ -274,6 +300,29 @@ public class ResponseTemplates {
         return "🐸ЖАБИ-ЖАБИ🐸";
     }
 
+    // ========== КОРОТКИЕ ОТВЕТЫ БЕЗ AI ==========
+
+    /**
+     * Ответ на приветствие
+     */
+    public String getGreetingMessage() {
+        return "👋 Привет! Задайте вопрос - и я отвечу.\n\n✨ А ещё могу: 😂 анекдот, 🌤️ погода, 🔮 гороскоп, 🎰 lucky";
+    }
+
+    /**
+     * Ответ на благодарность
+     */
+    public String getThanksMessage() {
+        return "🤗 Всегда пожалуйста! Обращайтесь.";
+    }
+
+    /**
+     * Ответ на короткое подтверждение ("ок", "понятно")
+     */
+    public String getAckMessage() {
+        return "👌 Если появятся вопросы - пишите!";
+    }
+
     // ========== СТАНДАРТНЫЕ СООБЩЕНИЯ ==========
 
     /**
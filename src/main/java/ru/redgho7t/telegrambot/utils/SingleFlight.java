@@ -0,0 +1,69 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Объединение одинаковых одновременных запросов (single-flight).
+ * Первый вызов с ключом запускает операцию, остальные до её завершения получают ту же операцию.
+ * @param <K> ключ запроса
+ * @param <V> объект выполняющейся операции (future или обёртка над ним)
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, V> inFlight = new ConcurrentHashMap<>();
+    private final Function<V, CompletableFuture<?>> completion;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param completion future, по завершении которого операция перестаёт быть общей
+     */
+    public SingleFlight(Function<V, CompletableFuture<?>> completion) {
+        this.completion = completion;
+    }
+
+    /**
+     * Возвращает выполняющуюся операцию с таким ключом или запускает новую
+     */
+    public V execute(K key, Supplier<V> start) {
+        boolean[] started = new boolean[1];
+        V flight = inFlight.computeIfAbsent(key, k -> {
+            started[0] = true;
+            return start.get();
+        });
+
+        if (started[0]) {
+            misses.incrementAndGet();
+            completion.apply(flight).whenComplete((result, error) -> inFlight.remove(key, flight));
+        } else {
+            hits.incrementAndGet();
+        }
+        return flight;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Возвращает метрики объединения
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("in_flight", inFlight.size());
+        metrics.put("hits", hits.get());
+        metrics.put("misses", misses.get());
+        return metrics;
+    }
+}
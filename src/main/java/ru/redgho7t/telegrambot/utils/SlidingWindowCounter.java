@@ -0,0 +1,59 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Счётчик за скользящее окно (например, запросы или токены за последнюю минуту).
+ * Окно делится на корзины по секунде: кольцо фиксированного размера, сумма с точностью до корзины,
+ * память не растёт с числом событий.
+ */
+public class SlidingWindowCounter {
+    private final long bucketNanos;
+    private final long[] counts;
+    // Номер корзины (время / bucketNanos), к которой относится значение в counts
+    private final long[] epochs;
+
+    /**
+     * @param windowSeconds длина окна в секундах, корзина - одна секунда
+     */
+    public SlidingWindowCounter(int windowSeconds) {
+        this.bucketNanos = TimeUnit.SECONDS.toNanos(1);
+        this.counts = new long[windowSeconds];
+        this.epochs = new long[windowSeconds];
+        // Пустые корзины заведомо вне окна
+        Arrays.fill(epochs, Long.MIN_VALUE / 2);
+    }
+
+    public void add(long amount) {
+        add(amount, System.nanoTime());
+    }
+
+    synchronized void add(long amount, long nowNanos) {
+        long epoch = Math.floorDiv(nowNanos, bucketNanos);
+        int index = (int) Math.floorMod(epoch, (long) counts.length);
+        if (epochs[index] != epoch) {
+            epochs[index] = epoch;
+            counts[index] = 0;
+        }
+        counts[index] += amount;
+    }
+
+    /**
+     * Сумма за окно
+     */
+    public long sum() {
+        return sum(System.nanoTime());
+    }
+
+    synchronized long sum(long nowNanos) {
+        long epoch = Math.floorDiv(nowNanos, bucketNanos);
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (epoch - epochs[i] < counts.length) {
+                total += counts[i];
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,59 @@
+package ru.redgho7t.telegrambot.utils;
+
+/**
+ * Token bucket для ограничения частоты запросов
+ * Время передаётся снаружи (System.nanoTime), чтобы проверять несколько вёдер на один момент
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param capacity максимальный размер всплеска
+     * @param tokensPerPeriod сколько токенов восстанавливается за период
+     * @param periodNanos длительность периода в наносекундах
+     */
+    public TokenBucket(double capacity, double tokensPerPeriod, long periodNanos) {
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerPeriod / periodNanos;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Сколько наносекунд ждать до появления токена (0 - токен есть сейчас)
+     */
+    public synchronized long nanosUntilAvailable(long now) {
+        refill(now);
+        if (tokens >= 1.0) {
+            return 0;
+        }
+        return (long) Math.ceil((1.0 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Забирает токен. Вызывать после проверки nanosUntilAvailable
+     */
+    public synchronized void take(long now) {
+        refill(now);
+        tokens -= 1.0;
+    }
+
+    /**
+     * Ведро полное - состояние можно забыть без потери ограничений
+     */
+    public synchronized boolean isFull(long now) {
+        refill(now);
+        return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefillNanos) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.util.Collection;
+
+/**
+ * Быстрая предварительная проверка: может ли сообщение содержать слово-триггер.
+ * Отрицательный ответ точный (слов из словаря в тексте нет), положительный - вероятностный,
+ * окончательно решает {@link KeywordMatcher}. Границы слов те же: непрерывная последовательность букв.
+ *
+ * Проверка идёт по char без выделения памяти и без перевода текста в нижний регистр:
+ * слово, первая буква которого не начинает ни один триггер (битовая карта), пропускается без хэширования;
+ * остальные проверяются по длине (битовая маска) и фильтру Блума.
+ */
+public final class TriggerPrefilter {
+    private static final int HASHES = 3;
+    // Бит фильтра Блума на одно слово
+    private static final int BITS_PER_WORD = 16;
+
+    private final long[] firstChars;
+    private final long lengthMask;
+    private final long[] bloom;
+    private final int bloomMask;
+
+    public TriggerPrefilter(Collection<String> words) {
+        int maxFirst = 0;
+        for (String word : words) {
+            maxFirst = Math.max(maxFirst, Character.toLowerCase(word.charAt(0)));
+        }
+        this.firstChars = new long[(maxFirst >> 6) + 1];
+
+        int bits = Integer.highestOneBit(Math.max(64, words.size() * BITS_PER_WORD) - 1) << 1;
+        this.bloom = new long[bits >> 6];
+        this.bloomMask = bits - 1;
+
+        long lengths = 0;
+        for (String word : words) {
+            char first = Character.toLowerCase(word.charAt(0));
+            firstChars[first >> 6] |= 1L << first;
+            lengths |= 1L << Math.min(word.length(), 63);
+
+            int hash = 0;
+            for (int i = 0; i < word.length(); i++) {
+                hash = 31 * hash + Character.toLowerCase(word.charAt(i));
+            }
+            for (int k = 0; k < HASHES; k++) {
+                int bit = probe(hash, k) & bloomMask;
+                bloom[bit >> 6] |= 1L << bit;
+            }
+        }
+        this.lengthMask = lengths;
+    }
+
+    /**
+     * @return false, если в тексте точно нет ни одного слова-триггера
+     */
+    public boolean mayContainTrigger(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (!isLetter(c)) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            char first = Character.toLowerCase(c);
+            boolean candidate = (first >> 6) < firstChars.length
+                    && (firstChars[first >> 6] & (1L << first)) != 0;
+            if (!candidate) {
+                // Первая буква не подходит - пропускаем слово целиком
+                do {
+                    i++;
+                } while (i < length && isLetter(text.charAt(i)));
+                continue;
+            }
+
+            int hash = first;
+            i++;
+            while (i < length && isLetter(c = text.charAt(i))) {
+                hash = 31 * hash + Character.toLowerCase(c);
+                i++;
+            }
+            int wordLength = i - start;
+            if ((lengthMask & (1L << Math.min(wordLength, 63))) != 0 && inBloom(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Character.isLetter с быстрым путём для латиницы и кириллицы
+     */
+    private static boolean isLetter(char c) {
+        if (c < 128) {
+            return (char) ((c | 0x20) - 'a') < 26;
+        }
+        if (c >= 'А' && c <= 'я' || c == 'ё' || c == 'Ё') {
+            return true;
+        }
+        return Character.isLetter(c);
+    }
+
+    private boolean inBloom(int hash) {
+        for (int k = 0; k < HASHES; k++) {
+            int bit = probe(hash, k) & bloomMask;
+            if ((bloom[bit >> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Двойное хэширование: h1 + k * h2
+     */
+    private static int probe(int hash, int k) {
+        int h1 = hash ^ (hash >>> 16);
+        int h2 = (hash * 0x9E3779B9) >>> 7 | 1;
+        return h1 + k * h2;
+    }
+}
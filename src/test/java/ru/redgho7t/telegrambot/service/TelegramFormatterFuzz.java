@@ -0,0 +1,91 @@
+package ru.redgho7t.telegrambot.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Проверка TelegramFormatter на случайном Markdown: в каждом результате теги из набора Telegram
+ * сбалансированы, а &, < и > вне тегов экранированы.
+ * Запуск (TelegramFormatter использует slf4j, поэтому нужен classpath с зависимостями):
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=ru.redgho7t.telegrambot.service.TelegramFormatterFuzz -Dexec.args="[число] [seed]"
+ */
+public class TelegramFormatterFuzz {
+    private static final Pattern TAG = Pattern.compile(
+            "<(/?)(b|i|s|pre|code|a)((?: class=\"language-[^\"<>&]*\")|(?: href=\"[^\"<>]*\"))?>");
+    private static final Pattern ENTITY = Pattern.compile("&(amp|lt|gt|quot);");
+    private static final String[] TOKENS = {
+            "*", "**", "_", "__", "~~", "`", "```", "```java\n", "\n", "\n\n", "# ", "## ", "* ", "- ",
+            "[", "]", "(", ")", "](https://example.com/?a=1&b=2)", "<", ">", "&", "\"", "'", " ",
+            "текст", "word", "x_y", "2*3", "😀", "\\", "http://t.me", "  "
+    };
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+        Random random = new Random(seed);
+        int failures = 0;
+        for (int n = 0; n < count; n++) {
+            String input = randomMarkdown(random);
+            String html = TelegramFormatter.render(input);
+            String error = validate(html);
+            if (error != null && failures++ < 10) {
+                System.out.printf("FAIL: %s%n  input: %s%n  html:  %s%n", error, input.replace("\n", "\\n"),
+                        html.replace("\n", "\\n"));
+            }
+        }
+        System.out.printf("%d входов, ошибок: %d%n", count, failures);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static String randomMarkdown(Random random) {
+        StringBuilder text = new StringBuilder();
+        int tokens = 1 + random.nextInt(40);
+        for (int i = 0; i < tokens; i++) {
+            text.append(TOKENS[random.nextInt(TOKENS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return описание нарушения или null
+     */
+    static String validate(String html) {
+        Deque<String> open = new ArrayDeque<>();
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                Matcher tag = TAG.matcher(html).region(i, html.length());
+                if (!tag.lookingAt()) {
+                    return "неэкранированный < на позиции " + i;
+                }
+                String name = tag.group(2);
+                if (tag.group(1).isEmpty()) {
+                    open.push(name);
+                } else if (open.isEmpty() || !open.pop().equals(name)) {
+                    return "лишний или непарный </" + name + ">";
+                } else if (tag.group(3) != null) {
+                    return "атрибут у закрывающего тега";
+                }
+                i = tag.end();
+            } else if (c == '&') {
+                Matcher entity = ENTITY.matcher(html).region(i, html.length());
+                if (!entity.lookingAt()) {
+                    return "неэкранированный & на позиции " + i;
+                }
+                i = entity.end();
+            } else if (c == '>') {
+                return "неэкранированный > на позиции " + i;
+            } else {
+                i++;
+            }
+        }
+        return open.isEmpty() ? null : "не закрыт тег <" + open.peek() + ">";
+    }
+}
@@ -0,0 +1,134 @@
+package ru.redgho7t.telegrambot.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Замер MessageSplitter.splitMessage против прежней реализации (split по абзацам и предложениям)
+ * на случайном Markdown 20 КБ и 50 КБ; печатает время на вызов и число частей у обеих версий.
+ * Запуск: java -cp target/classes:target/test-classes ru.redgho7t.telegrambot.utils.MessageSplitterBenchmark
+ */
+public class MessageSplitterBenchmark {
+    private static final String[] WORDS = {
+            "сообщение", "ответ", "модель", "текст", "Telegram", "*важно*", "_курсив_", "`код`",
+            "[ссылка](https://example.com)", "данные", "запрос", "быстро", "и", "в", "на", "пример"
+    };
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 5_000;
+
+    public static void main(String[] args) {
+        Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 7);
+        for (int size : new int[]{20_000, 50_000}) {
+            String text = randomMarkdown(random, size);
+            long current = measure(() -> MessageSplitter.splitMessage(text));
+            long previous = measure(() -> LegacySplitter.splitMessage(text));
+            System.out.printf("%d КБ: текущая %d мкс (%d частей), прежняя %d мкс (%d частей)%n", size / 1000,
+                    current / 1000, MessageSplitter.splitMessage(text).size(),
+                    previous / 1000, LegacySplitter.splitMessage(text).size());
+        }
+    }
+
+    /**
+     * Среднее время вызова в наносекундах после прогрева
+     */
+    private static long measure(Runnable call) {
+        for (int i = 0; i < WARMUP; i++) {
+            call.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.run();
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static String randomMarkdown(Random random, int size) {
+        StringBuilder text = new StringBuilder(size + 64);
+        while (text.length() < size) {
+            int sentence = 4 + random.nextInt(14);
+            for (int i = 0; i < sentence; i++) {
+                text.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            text.append(random.nextInt(8) == 0 ? "?" : ".");
+            int gap = random.nextInt(10);
+            text.append(gap == 0 ? "\n\n" : gap == 1 ? "\n" : " ");
+        }
+        return text.toString();
+    }
+
+    /**
+     * MessageSplitter до перехода на смещения - для сравнения
+     */
+    private static final class LegacySplitter {
+        private static final int MAX_MESSAGE_LENGTH = 4096;
+        private static final String PART_INDICATOR = "\n\n📄 Часть %d из %d";
+
+        static List<String> splitMessage(String text) {
+            List<String> parts = new ArrayList<>();
+            if (text.length() <= MAX_MESSAGE_LENGTH) {
+                parts.add(text);
+                return parts;
+            }
+            StringBuilder currentPart = new StringBuilder();
+            for (String paragraph : text.split("\n\n")) {
+                if (paragraph.length() > MAX_MESSAGE_LENGTH - 100) {
+                    if (currentPart.length() > 0) {
+                        parts.add(currentPart.toString().trim());
+                        currentPart = new StringBuilder();
+                    }
+                    parts.addAll(splitLongParagraph(paragraph));
+                    continue;
+                }
+                if (currentPart.length() + paragraph.length() + 2 <= MAX_MESSAGE_LENGTH - 50) {
+                    if (currentPart.length() > 0) {
+                        currentPart.append("\n\n");
+                    }
+                    currentPart.append(paragraph);
+                } else {
+                    if (currentPart.length() > 0) {
+                        parts.add(currentPart.toString().trim());
+                    }
+                    currentPart = new StringBuilder(paragraph);
+                }
+            }
+            if (currentPart.length() > 0) {
+                parts.add(currentPart.toString().trim());
+            }
+            return addPartNumbers(parts);
+        }
+
+        private static List<String> splitLongParagraph(String paragraph) {
+            List<String> parts = new ArrayList<>();
+            StringBuilder currentPart = new StringBuilder();
+            for (String sentence : paragraph.split("(?<=[.!?])\\s+")) {
+                if (currentPart.length() + sentence.length() + 1 <= MAX_MESSAGE_LENGTH - 50) {
+                    if (currentPart.length() > 0) {
+                        currentPart.append(" ");
+                    }
+                    currentPart.append(sentence);
+                } else {
+                    if (currentPart.length() > 0) {
+                        parts.add(currentPart.toString().trim());
+                    }
+                    currentPart = new StringBuilder(sentence);
+                }
+            }
+            if (currentPart.length() > 0) {
+                parts.add(currentPart.toString().trim());
+            }
+            return parts;
+        }
+
+        private static List<String> addPartNumbers(List<String> parts) {
+            if (parts.size() <= 1) {
+                return parts;
+            }
+            List<String> numberedParts = new ArrayList<>();
+            for (int i = 0; i < parts.size(); i++) {
+                numberedParts.add(parts.get(i) + String.format(PART_INDICATOR, i + 1, parts.size()));
+            }
+            return numberedParts;
+        }
+    }
+}